@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compiles a vector with {@link CompiledVectorWriter} and loads it back,
+ * broken buffers must be rejected instead of failing in draw().
+ */
+public class CompiledVectorTest extends AndroidTestCase {
+
+    private static final int SIZE = 24;
+    private static final int GREEN = 0xff00ff00;
+
+    private static final String VECTOR = "<vector"
+            + " xmlns:android=\"http://schemas.android.com/apk/res/android\""
+            + " android:width=\"24px\" android:height=\"24px\""
+            + " android:viewportWidth=\"24\" android:viewportHeight=\"24\">"
+            + "<group android:name=\"group\" android:rotation=\"45\""
+            + " android:pivotX=\"12\" android:pivotY=\"12\">"
+            + "<clip-path android:name=\"clip\" android:pathData=\"M0,0h24v24h-24z\"/>"
+            + "<path android:name=\"path\" android:fillColor=\"#ff00ff00\""
+            + " android:pathData=\"m4,4 16,0 0,16 -16,0z\"/>"
+            + "</group>"
+            + "</vector>";
+
+    private static byte[] compile() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompiledVectorWriter.write(new ByteArrayInputStream(VECTOR.getBytes("UTF-8")), out);
+        return out.toByteArray();
+    }
+
+    private static Bitmap draw(VectorDrawable drawable) {
+        final Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        drawable.setBounds(0, 0, SIZE, SIZE);
+        drawable.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    public void testRoundTrip() throws IOException {
+        final VectorDrawable drawable = VectorDrawable.create(getContext().getResources(),
+                ByteBuffer.wrap(compile()));
+        assertNotNull(drawable);
+        assertEquals(SIZE, drawable.getIntrinsicWidth());
+        assertEquals(SIZE, drawable.getIntrinsicHeight());
+
+        assertNotNull(drawable.getTargetByName("group"));
+        assertNotNull(drawable.getTargetByName("clip"));
+        final VectorDrawable.VFullPath path =
+                (VectorDrawable.VFullPath) drawable.getTargetByName("path");
+        assertNotNull(path);
+        assertEquals(GREEN, path.getFillColor());
+
+        // The implicit lineTo after m must be kept
+        final Bitmap bitmap = draw(drawable);
+        assertEquals(GREEN, bitmap.getPixel(SIZE / 2, SIZE / 2));
+        assertEquals(0, bitmap.getPixel(0, 0));
+    }
+
+    public void testTruncated() throws IOException {
+        final byte[] bytes = compile();
+        for (int i = 0; i < bytes.length; i++) {
+            assertNull("Truncated at " + i, VectorDrawable.create(getContext().getResources(),
+                    ByteBuffer.wrap(bytes, 0, i)));
+        }
+    }
+
+    public void testCorrupted() throws IOException {
+        final byte[] bytes = compile();
+        for (int i = 0; i < bytes.length; i++) {
+            final byte[] corrupted = bytes.clone();
+            corrupted[i] ^= 0xff;
+            // Either rejected, or loaded as something which can be drawn
+            final VectorDrawable drawable = VectorDrawable.create(
+                    getContext().getResources(), ByteBuffer.wrap(corrupted));
+            if (drawable != null) {
+                draw(drawable);
+            }
+        }
+    }
+
+    public void testBadLengths() throws IOException {
+        final byte[] bytes = compile();
+        // The name of the vector is null, its length is at 8
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes.clone());
+        buffer.putInt(8, -2);
+        assertNull(VectorDrawable.create(getContext().getResources(), buffer));
+        buffer.putInt(8, Integer.MAX_VALUE);
+        assertNull(VectorDrawable.create(getContext().getResources(), buffer));
+    }
+}
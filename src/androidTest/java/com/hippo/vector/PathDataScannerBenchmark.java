@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.hippo.anani.PathParser;
+
+import java.util.Random;
+
+/**
+ * Compares {@link PathDataScanner} with PathParser on a large illustration-like
+ * path data, the results are logged.
+ */
+public class PathDataScannerBenchmark extends AndroidTestCase {
+
+    private static final String TAG = PathDataScannerBenchmark.class.getSimpleName();
+
+    private static final int COMMANDS = 20000;
+    private static final int WARM_UP_RUNS = 3;
+    private static final int RUNS = 10;
+
+    private static String createPathData() {
+        final Random random = new Random(42);
+        final StringBuilder sb = new StringBuilder();
+        sb.append("M12.5,3.25");
+        for (int i = 0; i < COMMANDS; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    sb.append('l').append(random.nextFloat() * 10 - 5)
+                            .append(',').append(random.nextFloat() * 10 - 5);
+                    break;
+                case 1:
+                    sb.append('C');
+                    for (int j = 0; j < 6; j++) {
+                        sb.append(j == 0 ? "" : " ").append(random.nextInt(24000) / 1000f);
+                    }
+                    break;
+                case 2:
+                    sb.append('h').append(random.nextInt(100) / 10f);
+                    break;
+                default:
+                    sb.append("a2,2 0 0 1 ").append(random.nextInt(40) / 10f)
+                            .append(",-1.5");
+                    break;
+            }
+        }
+        return sb.append('z').toString();
+    }
+
+    public void testMatchesPathParser() {
+        final String pathData = createPathData();
+        final PathDataScanner scanner = new PathDataScanner();
+        scanner.scan(pathData);
+
+        // The same commands give nodes which can be morphed to each other
+        final PathParser.PathDataNode[] expected = PathParser.createNodesFromPathData(pathData);
+        final PathParser.PathDataNode[] actual = PathParser.createNodesFromPathData(
+                PathDataScanner.toPathData(scanner.getVerbs(), scanner.getCoords()));
+        assertTrue(PathParser.canMorph(expected, actual));
+    }
+
+    public void testBenchmark() {
+        final String pathData = createPathData();
+        final PathDataScanner scanner = new PathDataScanner();
+
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            PathParser.createNodesFromPathData(pathData);
+            scanner.scan(pathData);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            PathParser.createNodesFromPathData(pathData);
+        }
+        final long parserTime = (System.nanoTime() - start) / RUNS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            scanner.scan(pathData);
+            scanner.getVerbs();
+            scanner.getCoords();
+        }
+        final long scannerTime = (System.nanoTime() - start) / RUNS;
+
+        Log.i(TAG, COMMANDS + " commands, PathParser " + parserTime / 1000 + "us, "
+                + "PathDataScanner " + scannerTime / 1000 + "us");
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the numbers of {@link PathDataScanner} against {@link Float#parseFloat(String)},
+ * they may differ in the last bit only.
+ */
+public class PathDataScannerTest extends AndroidTestCase {
+
+    private final PathDataScanner mScanner = new PathDataScanner();
+
+    /**
+     * Scans the path data, then checks the coordinates are the numbers.
+     */
+    private void assertCoords(String pathData, String... numbers) {
+        mScanner.scan(pathData);
+        final float[] coords = mScanner.getCoords();
+        assertEquals(pathData, numbers.length, coords.length);
+        for (int i = 0; i < numbers.length; i++) {
+            final float expected = Float.parseFloat(numbers[i]);
+            assertEquals(pathData + ", " + numbers[i], expected, coords[i],
+                    Math.ulp(expected));
+        }
+    }
+
+    public void testIntegers() {
+        assertCoords("M0,1 L-2,+3", "0", "1", "-2", "+3");
+        assertCoords("h16777217", "16777217");
+    }
+
+    public void testFractions() {
+        assertCoords("M.5,-.25 L0.1,3.", ".5", "-.25", "0.1", "3.");
+        assertCoords("h0.30000001192092896", "0.30000001192092896");
+    }
+
+    public void testExponents() {
+        assertCoords("M1e3,1E3 L2e+2,1.5e-7", "1e3", "1E3", "2e+2", "1.5e-7");
+        assertCoords("M-.5e-3,5e-3", "-.5e-3", "5e-3");
+        assertCoords("M3.4e38,1.4e-45", "3.4e38", "1.4e-45");
+        assertCoords("M1e-40,-2.5e-42", "1e-40", "-2.5e-42");
+    }
+
+    public void testSplitNumbers() {
+        // A second dot or a sign starts a new number
+        assertCoords("M1.5.5,1-2", "1.5", ".5", "1", "-2");
+        assertCoords("M1e-2-3,.1.2", "1e-2", "-3", ".1", ".2");
+    }
+
+    public void testLongMantissas() {
+        assertCoords("M3.14159265358979323846264338,123456789012345678901234567",
+                "3.14159265358979323846264338", "123456789012345678901234567");
+        assertCoords("M0.000000000000000000000123456789,9999999999999999999.9999",
+                "0.000000000000000000000123456789", "9999999999999999999.9999");
+    }
+
+    public void testLeadingZeros() {
+        assertCoords("M007,0000.000123 L-00.5,000e5", "007", "0000.000123", "-00.5", "000e5");
+        assertCoords("h0000000000000000000000001.25", "0000000000000000000000001.25");
+    }
+
+    public void testImplicitRepeats() {
+        assertCoords("M1 2 3 4l5,6,7,8", "1", "2", "3", "4", "5", "6", "7", "8");
+        final byte[] verbs = mScanner.getVerbs();
+        assertTrue(Arrays.equals(new byte[] {
+                'M', (byte) ('M' | PathDataScanner.VERB_REPEAT),
+                'l', (byte) ('l' | PathDataScanner.VERB_REPEAT)
+        }, verbs));
+
+        assertCoords("M0,0c1,2,3,4,5,6 7,8,9,10,11,12z",
+                "0", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12");
+        assertEquals(4, mScanner.getVerbs().length);
+    }
+
+    public void testRandomNumbers() {
+        final Random random = new Random(42);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            final String number;
+            switch (random.nextInt(3)) {
+                case 0:
+                    number = Float.toString((random.nextFloat() - 0.5f) * 2000);
+                    break;
+                case 1:
+                    number = Double.toString(random.nextGaussian());
+                    break;
+                default:
+                    number = (random.nextInt(2000) - 1000) + "e" + (random.nextInt(40) - 20);
+                    break;
+            }
+            sb.setLength(0);
+            sb.append('h').append(number);
+            assertCoords(sb.toString(), number);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.hippo.vector.test.R;
+
+/**
+ * Draws an animated vector frame by frame, and checks that
+ * no object is allocated once it is warmed up.
+ */
+public class VectorDrawableAllocationTest extends AndroidTestCase {
+
+    private static final int WARM_UP_FRAMES = 5;
+    private static final int FRAMES = 60;
+
+    @SuppressWarnings("deprecation")
+    public void testDrawDoesNotAllocate() {
+        final VectorDrawable drawable = VectorDrawable.create(getContext(),
+                R.drawable.test_trim_path);
+        assertNotNull(drawable);
+        // The targets are changed, don't touch the state shared with other drawables
+        drawable.mutate();
+        // Rasterize on every frame, like an animated drawable
+        drawable.setAllowCaching(false);
+        drawable.setBounds(0, 0, 96, 96);
+        final VectorDrawable.VFullPath check =
+                (VectorDrawable.VFullPath) drawable.getTargetByName("check");
+        assertNotNull(check);
+
+        final Bitmap bitmap = Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            check.setTrimPathEnd((float) (i + 1) / WARM_UP_FRAMES);
+            drawable.draw(canvas);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                check.setTrimPathEnd((float) (i + 1) / FRAMES);
+                drawable.draw(canvas);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        assertEquals("Objects allocated in " + FRAMES + " frames",
+                0, Debug.getThreadAllocCount());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import com.hippo.vector.test.R;
+
+/**
+ * Draws vectors below their intrinsic size, where the paths are simplified,
+ * and checks that nothing visible is lost.
+ */
+public class VectorDrawableLodTest extends AndroidTestCase {
+
+    private static final int LEVELS = 3;
+
+    private static boolean isPainted(Bitmap bitmap) {
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            for (int x = 0; x < bitmap.getWidth(); x++) {
+                if (Color.alpha(bitmap.getPixel(x, y)) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void testStrokedDotSurvives() {
+        final VectorDrawable drawable = VectorDrawable.create(getContext(),
+                R.drawable.test_stroked_dot);
+        assertNotNull(drawable);
+        final int intrinsicSize = drawable.getIntrinsicWidth();
+
+        // Half, a quarter and an eighth of the intrinsic size
+        for (int level = 1; level <= LEVELS; level++) {
+            final int size = intrinsicSize >> level;
+            final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            drawable.setBounds(0, 0, size, size);
+            drawable.draw(new Canvas(bitmap));
+            assertTrue("The dot is lost at level " + level, isPainted(bitmap));
+        }
+    }
+}
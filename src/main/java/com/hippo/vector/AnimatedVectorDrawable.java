@@ -295,7 +295,16 @@ public class AnimatedVectorDrawable extends Drawable implements Animatable2 {
         return mAnimatedVectorState.mVectorDrawable.getOpticalInsets();
     }
 
+    /**
+     * Inflates the animated vector resource. The inflated constant state is cached,
+     * see {@link VectorDrawable#create(Context, int)}.
+     */
     public static AnimatedVectorDrawable create(Context context, int rid) {
+        final ConstantState cachedState = ConstantStateCache.get(context, rid);
+        if (cachedState != null) {
+            return (AnimatedVectorDrawable) cachedState.newDrawable(context.getResources());
+        }
+
         try {
             final XmlPullParser parser = context.getResources().getXml(rid);
             final AttributeSet attrs = Xml.asAttributeSet(parser);
@@ -316,7 +325,13 @@ public class AnimatedVectorDrawable extends Drawable implements Animatable2 {
             final AnimatedVectorDrawable drawable = new AnimatedVectorDrawable();
             drawable.inflate(context, parser, attrs);
 
-            return drawable;
+            final ConstantState state = drawable.getConstantState();
+            // No drawable refers to the state, every drawable copies it
+            ConstantStateCache.put(context, rid, state, drawable.getChangingConfigurations(),
+                    true);
+            // The animators of the returned drawable change its vector, so it must not
+            // be the vector in the cache.
+            return (AnimatedVectorDrawable) state.newDrawable(context.getResources());
         } catch (XmlPullParserException e) {
             Log.e(LOGTAG, "parser error", e);
         } catch (IOException e) {
@@ -341,6 +356,10 @@ public class AnimatedVectorDrawable extends Drawable implements Animatable2 {
                     if (drawableRes != 0) {
                         VectorDrawable vectorDrawable = VectorDrawable.create(context, drawableRes);
                         if (vectorDrawable != null) {
+                            // The state is shared with the cache, the animators must
+                            // not change it.
+                            state.mSourceVectorState = vectorDrawable.getConstantState();
+                            vectorDrawable = (VectorDrawable) vectorDrawable.mutate();
                             vectorDrawable.setAllowCaching(false);
                             vectorDrawable.setCallback(mCallback);
                             pathErrorScale = vectorDrawable.getPixelSize();
@@ -372,6 +391,9 @@ public class AnimatedVectorDrawable extends Drawable implements Animatable2 {
     private static class AnimatedVectorDrawableState extends ConstantState {
         int mChangingConfigurations;
         VectorDrawable mVectorDrawable;
+        // The cached state mVectorDrawable is mutated from. It is only kept so that
+        // the cache keeps it as long as this state.
+        ConstantState mSourceVectorState;
 
         /** Fully inflated animators awaiting cloning into an AnimatorSet. */
         ArrayList<Animator> mAnimators;
@@ -383,6 +405,7 @@ public class AnimatedVectorDrawable extends Drawable implements Animatable2 {
                 Callback owner) {
             if (copy != null) {
                 mChangingConfigurations = copy.mChangingConfigurations;
+                mSourceVectorState = copy.mSourceVectorState;
 
                 if (copy.mVectorDrawable != null) {
                     final ConstantState cs = copy.mVectorDrawable.getConstantState();
@@ -421,7 +444,8 @@ public class AnimatedVectorDrawable extends Drawable implements Animatable2 {
 
         @Override
         public int getChangingConfigurations() {
-            return mChangingConfigurations;
+            return mChangingConfigurations
+                    | (mVectorDrawable != null ? mVectorDrawable.getChangingConfigurations() : 0);
         }
 
         public void addTargetAnimator(String targetName, Animator animator) {
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A pool of mutable bitmaps. {@link VectorRasterCache} takes the rasters
+ * from the pool and gives them back when they are evicted.
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @see VectorRasterCache#setBitmapPool(BitmapPool)
+ */
+public interface BitmapPool {
+
+    /**
+     * Returns a mutable bitmap with the exact size and config, or null if
+     * there is no such bitmap in the pool. The content of the bitmap is
+     * undefined.
+     */
+    @Nullable
+    Bitmap get(int width, int height, @NonNull Bitmap.Config config);
+
+    /**
+     * Gives the bitmap to the pool. The pool may recycle it or just
+     * drop it.
+     */
+    void put(@NonNull Bitmap bitmap);
+
+    /**
+     * Drops all bitmaps in the pool.
+     */
+    void clear();
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The binary format of compiled vectors, written by {@link CompiledVectorWriter}
+ * and loaded by {@link VectorDrawable#create(android.content.res.Resources, ByteBuffer)}.
+ * All numbers are big endian.
+ * <pre>
+ * vector:    int MAGIC, int VERSION, string name, int flags,
+ *            dimension width, dimension height, float viewportWidth, float viewportHeight,
+ *            float alpha, int tint, int tintMode, int cacheMode,
+ *            dimension opticalInsetLeft, dimension opticalInsetTop,
+ *            dimension opticalInsetRight, dimension opticalInsetBottom,
+ *            element*, byte TAG_END
+ * element:   byte TAG_GROUP, string name, float rotation, float pivotX, float pivotY,
+ *            float scaleX, float scaleY, float translateX, float translateY,
+ *            element*, byte TAG_GROUP_END
+ *          | byte TAG_PATH, string name, pathData, int fillColor, float fillAlpha,
+ *            int strokeColor, float strokeAlpha, float strokeWidth, float trimPathStart,
+ *            float trimPathEnd, float trimPathOffset, byte strokeLineCap,
+ *            byte strokeLineJoin, float strokeMiterLimit
+ *          | byte TAG_CLIP_PATH, string name, pathData
+ * pathData:  int verbCount, byte[verbCount] verbs, int coordCount, float[coordCount] coords,
+ *            see {@link PathDataScanner}
+ * dimension: byte unit, float value, the unit is one of the TypedValue.COMPLEX_UNIT_*
+ * string:    int length, -1 for null, byte[length] UTF-8
+ * </pre>
+ */
+final class CompiledVector {
+
+    static final int MAGIC = 0x56454354; // VECT
+    static final int VERSION = 1;
+
+    static final int TAG_END = 0;
+    static final int TAG_GROUP = 1;
+    static final int TAG_GROUP_END = 2;
+    static final int TAG_PATH = 3;
+    static final int TAG_CLIP_PATH = 4;
+
+    static final int FLAG_AUTO_MIRRORED = 1;
+    static final int FLAG_TINT = 1 << 1;
+    static final int FLAG_NO_CACHING = 1 << 2;
+    static final int FLAG_CACHE_STROKE_OUTLINES = 1 << 3;
+
+    // The same as TypedValue.COMPLEX_UNIT_*
+    static final int UNIT_PX = 0;
+    static final int UNIT_DIP = 1;
+    static final int UNIT_SP = 2;
+    static final int UNIT_PT = 3;
+    static final int UNIT_IN = 4;
+    static final int UNIT_MM = 5;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CompiledVector() {
+    }
+
+    static void readHeader(ByteBuffer buffer) throws IOException {
+        final int magic = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new IOException("It is not compiled vector");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported compiled vector version " + version);
+        }
+    }
+
+    static String readString(ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        checkLength(buffer, length, 1);
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Reads the verbs, all of them must be known commands.
+     */
+    static byte[] readVerbs(ByteBuffer buffer) throws IOException {
+        final int count = buffer.getInt();
+        checkLength(buffer, count, 1);
+        final byte[] verbs = new byte[count];
+        buffer.get(verbs);
+        for (byte verb : verbs) {
+            if (PathDataScanner.getCoordCount(verb) < 0) {
+                throw new IOException("Unknown verb " + (verb & PathDataScanner.VERB_MASK)
+                        + " in compiled vector");
+            }
+        }
+        return verbs;
+    }
+
+    /**
+     * Reads the coordinates, there must be as many as the verbs take.
+     */
+    static float[] readCoords(ByteBuffer buffer, byte[] verbs) throws IOException {
+        final int count = buffer.getInt();
+        int expected = 0;
+        for (byte verb : verbs) {
+            expected += PathDataScanner.getCoordCount(verb);
+        }
+        if (count != expected) {
+            throw new IOException("The verbs take " + expected + " coordinates, but there are "
+                    + count + " in compiled vector");
+        }
+        checkLength(buffer, count, 4);
+        final float[] coords = new float[count];
+        buffer.asFloatBuffer().get(coords);
+        buffer.position(buffer.position() + count * 4);
+        return coords;
+    }
+
+    // Checks the length before allocating, a broken one may be huge
+    private static void checkLength(ByteBuffer buffer, int length, int elementSize)
+            throws IOException {
+        if (length < 0 || (long) length * elementSize > buffer.remaining()) {
+            throw new IOException("Invalid length " + length + " in compiled vector");
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Compiles the XML of a vector to the binary format loaded by
+ * {@link VectorDrawable#create(android.content.res.Resources, java.nio.ByteBuffer)},
+ * which skips the XML parsing and the path data parsing.
+ * <p>
+ * It only depends on the JDK, so it can run at build time:
+ * <pre>
+ * java com.hippo.vector.CompiledVectorWriter ic_launcher.xml ic_launcher.vec
+ * </pre>
+ * The attributes are matched by the local name, in any namespace. The attributes
+ * must be literal values, resource references can't be resolved at build time.
+ */
+public final class CompiledVectorWriter {
+
+    private static final Pattern DIMENSION_PATTERN =
+            Pattern.compile("\\s*([-+]?[0-9]*\\.?[0-9]+(?:[eE][-+]?[0-9]+)?)\\s*(px|dp|dip|sp|pt|in|mm)\\s*");
+
+    private CompiledVectorWriter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CompiledVectorWriter <input.xml> <output>");
+            System.exit(1);
+        }
+        final InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+            try {
+                write(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compiles the vector XML from in to out. The streams are not closed.
+     *
+     * @throws IOException if the XML is malformed or it isn't a valid vector
+     */
+    public static void write(InputStream in, OutputStream out) throws IOException {
+        final DataOutputStream dataOut = new DataOutputStream(out);
+        try {
+            final SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.newSAXParser().parse(in, new Handler(dataOut));
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Can't create XML parser", e);
+        } catch (SAXException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        dataOut.flush();
+    }
+
+    private static final class Handler extends DefaultHandler {
+
+        private final DataOutputStream mOut;
+        private final PathDataScanner mScanner = new PathDataScanner();
+        private boolean mInVector;
+        private boolean mHasPath;
+        // The depth of the elements in the vector element
+        private int mDepth;
+
+        public Handler(DataOutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) throws SAXException {
+            try {
+                if (!mInVector) {
+                    if (!"vector".equals(localName)) {
+                        throw new SAXException("It is not vector");
+                    }
+                    mInVector = true;
+                    writeVector(attributes);
+                    return;
+                }
+
+                mDepth++;
+                if ("group".equals(localName)) {
+                    writeGroup(attributes);
+                } else if ("path".equals(localName)) {
+                    writePath(attributes);
+                    mHasPath = true;
+                } else if ("clip-path".equals(localName)) {
+                    writeClipPath(attributes);
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            try {
+                if (mDepth == 0) {
+                    // The end of the vector
+                    if (!mHasPath) {
+                        throw new SAXException("no path defined");
+                    }
+                    mOut.writeByte(CompiledVector.TAG_END);
+                    return;
+                }
+
+                mDepth--;
+                if ("group".equals(localName)) {
+                    mOut.writeByte(CompiledVector.TAG_GROUP_END);
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private void writeVector(Attributes attrs) throws IOException, SAXException {
+            final DataOutputStream out = mOut;
+            out.writeInt(CompiledVector.MAGIC);
+            out.writeInt(CompiledVector.VERSION);
+            writeString(out, get(attrs, "name"));
+
+            int flags = 0;
+            if (getBoolean(attrs, "autoMirrored", false)) {
+                flags |= CompiledVector.FLAG_AUTO_MIRRORED;
+            }
+            final String tint = get(attrs, "tint");
+            if (tint != null) {
+                flags |= CompiledVector.FLAG_TINT;
+            }
+            if (!getBoolean(attrs, "allowCaching", true)) {
+                flags |= CompiledVector.FLAG_NO_CACHING;
+            }
+            if (getBoolean(attrs, "cacheStrokeOutlines", false)) {
+                flags |= CompiledVector.FLAG_CACHE_STROKE_OUTLINES;
+            }
+            out.writeInt(flags);
+
+            if (get(attrs, "width") == null) {
+                throw new SAXException("<vector> tag requires width > 0");
+            } else if (get(attrs, "height") == null) {
+                throw new SAXException("<vector> tag requires height > 0");
+            }
+            writeDimension(out, attrs, "width");
+            writeDimension(out, attrs, "height");
+
+            final float viewportWidth = getFloat(attrs, "viewportWidth", 0);
+            final float viewportHeight = getFloat(attrs, "viewportHeight", 0);
+            if (viewportWidth <= 0) {
+                throw new SAXException("<vector> tag requires viewportWidth > 0");
+            } else if (viewportHeight <= 0) {
+                throw new SAXException("<vector> tag requires viewportHeight > 0");
+            }
+            out.writeFloat(viewportWidth);
+            out.writeFloat(viewportHeight);
+
+            out.writeFloat(getFloat(attrs, "alpha", 1.0f));
+            out.writeInt(tint != null ? parseColor("tint", tint) : 0);
+            out.writeInt(getEnum(attrs, "tintMode", 5, "src_over", 3, "src_in", 5,
+                    "src_atop", 9, "multiply", 14, "screen", 15, "add", 16));
+            out.writeInt(getEnum(attrs, "cacheMode", 0, "bitmap", 0, "tiled", 1,
+                    "picture", 2, "mipmap", 3));
+
+            writeDimension(out, attrs, "opticalInsetLeft");
+            writeDimension(out, attrs, "opticalInsetTop");
+            writeDimension(out, attrs, "opticalInsetRight");
+            writeDimension(out, attrs, "opticalInsetBottom");
+        }
+
+        private void writeGroup(Attributes attrs) throws IOException, SAXException {
+            final DataOutputStream out = mOut;
+            out.writeByte(CompiledVector.TAG_GROUP);
+            writeString(out, get(attrs, "name"));
+            out.writeFloat(getFloat(attrs, "rotation", 0));
+            out.writeFloat(getFloat(attrs, "pivotX", 0));
+            out.writeFloat(getFloat(attrs, "pivotY", 0));
+            out.writeFloat(getFloat(attrs, "scaleX", 1));
+            out.writeFloat(getFloat(attrs, "scaleY", 1));
+            out.writeFloat(getFloat(attrs, "translateX", 0));
+            out.writeFloat(getFloat(attrs, "translateY", 0));
+        }
+
+        private void writePath(Attributes attrs) throws IOException, SAXException {
+            final DataOutputStream out = mOut;
+            out.writeByte(CompiledVector.TAG_PATH);
+            writeString(out, get(attrs, "name"));
+            writePathData(attrs);
+            out.writeInt(getColor(attrs, "fillColor", 0));
+            out.writeFloat(getFloat(attrs, "fillAlpha", 1));
+            out.writeInt(getColor(attrs, "strokeColor", 0));
+            out.writeFloat(getFloat(attrs, "strokeAlpha", 1));
+            out.writeFloat(getFloat(attrs, "strokeWidth", 0));
+            out.writeFloat(getFloat(attrs, "trimPathStart", 0));
+            out.writeFloat(getFloat(attrs, "trimPathEnd", 1));
+            out.writeFloat(getFloat(attrs, "trimPathOffset", 0));
+            out.writeByte(getEnum(attrs, "strokeLineCap", 0, "butt", 0, "round", 1,
+                    "square", 2));
+            out.writeByte(getEnum(attrs, "strokeLineJoin", 0, "miter", 0, "round", 1,
+                    "bevel", 2));
+            out.writeFloat(getFloat(attrs, "strokeMiterLimit", 4));
+        }
+
+        private void writeClipPath(Attributes attrs) throws IOException, SAXException {
+            final DataOutputStream out = mOut;
+            out.writeByte(CompiledVector.TAG_CLIP_PATH);
+            writeString(out, get(attrs, "name"));
+            writePathData(attrs);
+        }
+
+        private void writePathData(Attributes attrs) throws IOException, SAXException {
+            final DataOutputStream out = mOut;
+            final String pathData = get(attrs, "pathData");
+            if (pathData == null) {
+                out.writeInt(0);
+                out.writeInt(0);
+                return;
+            }
+
+            try {
+                mScanner.scan(pathData);
+            } catch (IllegalArgumentException e) {
+                throw new SAXException(e.getMessage(), e);
+            }
+            final byte[] verbs = mScanner.getVerbs();
+            final float[] coords = mScanner.getCoords();
+            out.writeInt(verbs.length);
+            out.write(verbs);
+            out.writeInt(coords.length);
+            for (float coord : coords) {
+                out.writeFloat(coord);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = str.getBytes(CompiledVector.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeDimension(DataOutputStream out, Attributes attrs, String name)
+            throws IOException, SAXException {
+        final String value = get(attrs, name);
+        if (value == null) {
+            out.writeByte(CompiledVector.UNIT_PX);
+            out.writeFloat(0);
+            return;
+        }
+
+        final Matcher matcher = DIMENSION_PATTERN.matcher(value);
+        if (!matcher.matches()) {
+            throw new SAXException(name + " is not a dimension: " + value);
+        }
+        final String unit = matcher.group(2);
+        final int unitType;
+        if ("px".equals(unit)) {
+            unitType = CompiledVector.UNIT_PX;
+        } else if ("dp".equals(unit) || "dip".equals(unit)) {
+            unitType = CompiledVector.UNIT_DIP;
+        } else if ("sp".equals(unit)) {
+            unitType = CompiledVector.UNIT_SP;
+        } else if ("pt".equals(unit)) {
+            unitType = CompiledVector.UNIT_PT;
+        } else if ("in".equals(unit)) {
+            unitType = CompiledVector.UNIT_IN;
+        } else {
+            unitType = CompiledVector.UNIT_MM;
+        }
+        out.writeByte(unitType);
+        out.writeFloat(Float.parseFloat(matcher.group(1)));
+    }
+
+    /**
+     * Returns the attribute, or null if it isn't set.
+     */
+    private static String get(Attributes attrs, String name) throws SAXException {
+        for (int i = 0, n = attrs.getLength(); i < n; i++) {
+            if (name.equals(attrs.getLocalName(i))) {
+                final String value = attrs.getValue(i);
+                if (value.startsWith("@") || value.startsWith("?")) {
+                    throw new SAXException(name + " refers to a resource, it can't be compiled: "
+                            + value);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static float getFloat(Attributes attrs, String name, float defValue)
+            throws SAXException {
+        final String value = get(attrs, name);
+        if (value == null) {
+            return defValue;
+        }
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            throw new SAXException(name + " is not a float: " + value);
+        }
+    }
+
+    private static boolean getBoolean(Attributes attrs, String name, boolean defValue)
+            throws SAXException {
+        final String value = get(attrs, name);
+        if (value == null) {
+            return defValue;
+        } else if ("true".equals(value.trim())) {
+            return true;
+        } else if ("false".equals(value.trim())) {
+            return false;
+        } else {
+            throw new SAXException(name + " is not a boolean: " + value);
+        }
+    }
+
+    private static int getColor(Attributes attrs, String name, int defValue)
+            throws SAXException {
+        final String value = get(attrs, name);
+        return value != null ? parseColor(name, value) : defValue;
+    }
+
+    /**
+     * Parses #RGB, #ARGB, #RRGGBB and #AARRGGBB.
+     */
+    private static int parseColor(String name, String value) throws SAXException {
+        final String str = value.trim();
+        if (str.startsWith("#")) {
+            try {
+                final long color = Long.parseLong(str.substring(1), 16);
+                switch (str.length() - 1) {
+                    case 3:
+                        return 0xff000000 | expandColor((int) color, 3);
+                    case 4:
+                        return expandColor((int) color, 4);
+                    case 6:
+                        return 0xff000000 | (int) color;
+                    case 8:
+                        return (int) color;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through
+            }
+        }
+        throw new SAXException(name + " is not a color: " + value);
+    }
+
+    // 0xRGB to 0xRRGGBB
+    private static int expandColor(int color, int digits) {
+        int result = 0;
+        for (int i = digits - 1; i >= 0; i--) {
+            final int digit = (color >> (i * 4)) & 0xf;
+            result = (result << 8) | (digit << 4) | digit;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of the enum name, the names and the values are given in pairs.
+     */
+    private static int getEnum(Attributes attrs, String name, int defValue,
+            Object... namesAndValues) throws SAXException {
+        final String value = get(attrs, name);
+        if (value == null) {
+            return defValue;
+        }
+        final String str = value.trim();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (namesAndValues[i].equals(str)) {
+                return (Integer) namesAndValues[i + 1];
+            }
+        }
+        // The value of the enum is allowed too
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            throw new SAXException(name + " is not a valid value: " + value);
+        }
+    }
+}
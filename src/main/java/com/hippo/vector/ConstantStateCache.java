@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.util.TypedValue;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A process-wide cache of inflated constant states, keyed by resource id,
+ * density, layout direction and theme, like the drawable cache of
+ * {@link Resources}. The states are weakly referenced, they are kept as long
+ * as any drawable uses them. The states which no drawable refers to, like the
+ * animated vector states which are always copied, are pinned instead, the
+ * least recently used ones are unpinned.
+ * <p>
+ * A state is dropped when the configuration is changed in a way it depends
+ * on, which is the changing configurations of the resource and the state.
+ * Before Lollipop, typed arrays don't tell the changing configurations,
+ * so any change drops the state.
+ */
+final class ConstantStateCache {
+
+    private static final Object sLock = new Object();
+
+    private static final HashMap<Key, Entry> sEntries = new HashMap<>();
+
+    private static final int MAX_PINNED = 16;
+
+    private static final LinkedHashMap<Key, Drawable.ConstantState> sPinned =
+            new LinkedHashMap<>(0, 0.75f, true);
+
+    private static final TypedValue sTmpValue = new TypedValue();
+
+    private ConstantStateCache() {
+    }
+
+    /**
+     * Returns the cached state of the resource, or null.
+     */
+    static Drawable.ConstantState get(Context context, int resId) {
+        final Resources res = context.getResources();
+        final Resources.Theme theme = context.getTheme();
+        final Configuration config = res.getConfiguration();
+        final Key key = new Key(resId, res, theme);
+
+        synchronized (sLock) {
+            final Entry entry = sEntries.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            final Drawable.ConstantState state = entry.mState.get();
+            if (state == null || (entry.mConfiguration.diff(config)
+                    & entry.mChangingConfigurations) != 0) {
+                // Collected or stale
+                sEntries.remove(key);
+                sPinned.remove(key);
+                return null;
+            }
+            if (entry.mTheme.get() != theme) {
+                // Another theme with the same hash code
+                return null;
+            }
+            // Mark it as recently used
+            sPinned.get(key);
+            return state;
+        }
+    }
+
+    /**
+     * Puts the state of the resource to the cache, it is kept as long as any
+     * drawable uses it.
+     *
+     * @param changingConfigurations the changing configurations of the drawable
+     */
+    static void put(Context context, int resId, Drawable.ConstantState state,
+            int changingConfigurations) {
+        put(context, resId, state, changingConfigurations, false);
+    }
+
+    /**
+     * Puts the state of the resource to the cache.
+     *
+     * @param changingConfigurations the changing configurations of the drawable
+     * @param pin whether to keep the state even if no drawable uses it
+     */
+    static void put(Context context, int resId, Drawable.ConstantState state,
+            int changingConfigurations, boolean pin) {
+        final Resources res = context.getResources();
+        final Resources.Theme theme = context.getTheme();
+
+        synchronized (sLock) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                // The changing configurations of the attributes are unknown
+                changingConfigurations = ~0;
+            }
+            // The qualifiers the resource is picked with
+            res.getValue(resId, sTmpValue, true);
+            changingConfigurations |= sTmpValue.changingConfigurations;
+
+            // Drop collected states
+            final Iterator<Entry> iterator = sEntries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().mState.get() == null) {
+                    iterator.remove();
+                }
+            }
+
+            final Key key = new Key(resId, res, theme);
+            sEntries.put(key, new Entry(state, theme,
+                    new Configuration(res.getConfiguration()), changingConfigurations));
+
+            if (pin) {
+                sPinned.put(key, state);
+                final Iterator<Key> pinned = sPinned.keySet().iterator();
+                while (sPinned.size() > MAX_PINNED && pinned.hasNext()) {
+                    pinned.next();
+                    pinned.remove();
+                }
+            } else {
+                sPinned.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drops all cached states.
+     */
+    static void clear() {
+        synchronized (sLock) {
+            sEntries.clear();
+            sPinned.clear();
+        }
+    }
+
+    private static int getLayoutDirection(Resources res) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return res.getConfiguration().getLayoutDirection();
+        } else {
+            return 0;
+        }
+    }
+
+    static final class Key {
+        final int mResId;
+        final int mDensity;
+        final int mLayoutDirection;
+        // Themes are compared by identity, see Entry.mTheme
+        final int mThemeHash;
+
+        public Key(int resId, Resources res, Resources.Theme theme) {
+            mResId = resId;
+            mDensity = res.getDisplayMetrics().densityDpi;
+            mLayoutDirection = getLayoutDirection(res);
+            mThemeHash = System.identityHashCode(theme);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (mResId != key.mResId) return false;
+            if (mDensity != key.mDensity) return false;
+            if (mLayoutDirection != key.mLayoutDirection) return false;
+            if (mThemeHash != key.mThemeHash) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mResId;
+            result = 31 * result + mDensity;
+            result = 31 * result + mLayoutDirection;
+            result = 31 * result + mThemeHash;
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        final WeakReference<Drawable.ConstantState> mState;
+        // Don't keep the theme, it may keep the activity
+        final WeakReference<Resources.Theme> mTheme;
+        final Configuration mConfiguration;
+        final int mChangingConfigurations;
+
+        public Entry(Drawable.ConstantState state, Resources.Theme theme,
+                Configuration configuration, int changingConfigurations) {
+            mState = new WeakReference<>(state);
+            mTheme = new WeakReference<>(theme);
+            mConfiguration = configuration;
+            mChangingConfigurations = changingConfigurations;
+        }
+    }
+}
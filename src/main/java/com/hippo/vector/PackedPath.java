@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.graphics.Path;
+
+/**
+ * Builds a {@link Path} from the verbs and coordinates of {@link PathDataScanner},
+ * with the same result as PathParser builds from the nodes of the path data.
+ */
+final class PackedPath {
+
+    private PackedPath() {
+    }
+
+    public static void toPath(byte[] verbs, float[] coords, Path path) {
+        float currentX = 0;
+        float currentY = 0;
+        float ctrlPointX = 0;
+        float ctrlPointY = 0;
+        float segmentStartX = 0;
+        float segmentStartY = 0;
+        int previousVerb = 'm';
+
+        int k = 0;
+        for (byte b : verbs) {
+            final boolean repeat = (b & PathDataScanner.VERB_REPEAT) != 0;
+            int verb = b & PathDataScanner.VERB_MASK;
+            if (repeat && verb == 'm') {
+                // The coordinates after a move are lines
+                verb = 'l';
+            } else if (repeat && verb == 'M') {
+                verb = 'L';
+            }
+
+            switch (verb) {
+                case 'z':
+                case 'Z':
+                    path.close();
+                    // Move to the start of the contour, for the relative commands after it
+                    currentX = segmentStartX;
+                    currentY = segmentStartY;
+                    ctrlPointX = segmentStartX;
+                    ctrlPointY = segmentStartY;
+                    path.moveTo(currentX, currentY);
+                    break;
+                case 'm':
+                    currentX += coords[k];
+                    currentY += coords[k + 1];
+                    path.moveTo(currentX, currentY);
+                    segmentStartX = currentX;
+                    segmentStartY = currentY;
+                    break;
+                case 'M':
+                    currentX = coords[k];
+                    currentY = coords[k + 1];
+                    path.moveTo(currentX, currentY);
+                    segmentStartX = currentX;
+                    segmentStartY = currentY;
+                    break;
+                case 'l':
+                    currentX += coords[k];
+                    currentY += coords[k + 1];
+                    path.lineTo(currentX, currentY);
+                    break;
+                case 'L':
+                    currentX = coords[k];
+                    currentY = coords[k + 1];
+                    path.lineTo(currentX, currentY);
+                    break;
+                case 'h':
+                    currentX += coords[k];
+                    path.lineTo(currentX, currentY);
+                    break;
+                case 'H':
+                    currentX = coords[k];
+                    path.lineTo(currentX, currentY);
+                    break;
+                case 'v':
+                    currentY += coords[k];
+                    path.lineTo(currentX, currentY);
+                    break;
+                case 'V':
+                    currentY = coords[k];
+                    path.lineTo(currentX, currentY);
+                    break;
+                case 'c':
+                    path.cubicTo(currentX + coords[k], currentY + coords[k + 1],
+                            currentX + coords[k + 2], currentY + coords[k + 3],
+                            currentX + coords[k + 4], currentY + coords[k + 5]);
+                    ctrlPointX = currentX + coords[k + 2];
+                    ctrlPointY = currentY + coords[k + 3];
+                    currentX += coords[k + 4];
+                    currentY += coords[k + 5];
+                    break;
+                case 'C':
+                    path.cubicTo(coords[k], coords[k + 1], coords[k + 2], coords[k + 3],
+                            coords[k + 4], coords[k + 5]);
+                    ctrlPointX = coords[k + 2];
+                    ctrlPointY = coords[k + 3];
+                    currentX = coords[k + 4];
+                    currentY = coords[k + 5];
+                    break;
+                case 's':
+                case 'S': {
+                    float reflectiveCtrlPointX = currentX;
+                    float reflectiveCtrlPointY = currentY;
+                    if (isCubic(previousVerb)) {
+                        reflectiveCtrlPointX = 2 * currentX - ctrlPointX;
+                        reflectiveCtrlPointY = 2 * currentY - ctrlPointY;
+                    }
+                    final float offsetX = verb == 's' ? currentX : 0;
+                    final float offsetY = verb == 's' ? currentY : 0;
+                    ctrlPointX = offsetX + coords[k];
+                    ctrlPointY = offsetY + coords[k + 1];
+                    currentX = offsetX + coords[k + 2];
+                    currentY = offsetY + coords[k + 3];
+                    path.cubicTo(reflectiveCtrlPointX, reflectiveCtrlPointY,
+                            ctrlPointX, ctrlPointY, currentX, currentY);
+                    break;
+                }
+                case 'q':
+                case 'Q': {
+                    final float offsetX = verb == 'q' ? currentX : 0;
+                    final float offsetY = verb == 'q' ? currentY : 0;
+                    ctrlPointX = offsetX + coords[k];
+                    ctrlPointY = offsetY + coords[k + 1];
+                    currentX = offsetX + coords[k + 2];
+                    currentY = offsetY + coords[k + 3];
+                    path.quadTo(ctrlPointX, ctrlPointY, currentX, currentY);
+                    break;
+                }
+                case 't':
+                case 'T': {
+                    float reflectiveCtrlPointX = currentX;
+                    float reflectiveCtrlPointY = currentY;
+                    if (isQuad(previousVerb)) {
+                        reflectiveCtrlPointX = 2 * currentX - ctrlPointX;
+                        reflectiveCtrlPointY = 2 * currentY - ctrlPointY;
+                    }
+                    final float offsetX = verb == 't' ? currentX : 0;
+                    final float offsetY = verb == 't' ? currentY : 0;
+                    ctrlPointX = reflectiveCtrlPointX;
+                    ctrlPointY = reflectiveCtrlPointY;
+                    currentX = offsetX + coords[k];
+                    currentY = offsetY + coords[k + 1];
+                    path.quadTo(ctrlPointX, ctrlPointY, currentX, currentY);
+                    break;
+                }
+                case 'a':
+                case 'A': {
+                    final float offsetX = verb == 'a' ? currentX : 0;
+                    final float offsetY = verb == 'a' ? currentY : 0;
+                    final float endX = offsetX + coords[k + 5];
+                    final float endY = offsetY + coords[k + 6];
+                    drawArc(path, currentX, currentY, endX, endY, coords[k], coords[k + 1],
+                            coords[k + 2], coords[k + 3] != 0, coords[k + 4] != 0);
+                    currentX = endX;
+                    currentY = endY;
+                    ctrlPointX = currentX;
+                    ctrlPointY = currentY;
+                    break;
+                }
+            }
+            k += PathDataScanner.getCoordCount(verb);
+            previousVerb = verb;
+        }
+    }
+
+    private static boolean isCubic(int verb) {
+        return verb == 'c' || verb == 'C' || verb == 's' || verb == 'S';
+    }
+
+    private static boolean isQuad(int verb) {
+        return verb == 'q' || verb == 'Q' || verb == 't' || verb == 'T';
+    }
+
+    /**
+     * Converts the SVG arc to cubic beziers, it is the same as PathParser.
+     */
+    private static void drawArc(Path p, float x0, float y0, float x1, float y1, float a,
+            float b, float theta, boolean isMoreThanHalf, boolean isPositiveArc) {
+        // Convert rotation angle from degrees to radians
+        final double thetaD = Math.toRadians(theta);
+        // Pre-compute rotation matrix entries
+        final double cosTheta = Math.cos(thetaD);
+        final double sinTheta = Math.sin(thetaD);
+        // Transform (x0, y0) and (x1, y1) into unit space
+        // using (inverse) rotation, followed by (inverse) scale
+        final double x0p = (x0 * cosTheta + y0 * sinTheta) / a;
+        final double y0p = (-x0 * sinTheta + y0 * cosTheta) / b;
+        final double x1p = (x1 * cosTheta + y1 * sinTheta) / a;
+        final double y1p = (-x1 * sinTheta + y1 * cosTheta) / b;
+
+        // Compute differences and averages
+        final double dx = x0p - x1p;
+        final double dy = y0p - y1p;
+        final double xm = (x0p + x1p) / 2;
+        final double ym = (y0p + y1p) / 2;
+        // Solve for intersecting unit circles
+        final double dsq = dx * dx + dy * dy;
+        if (dsq == 0.0) {
+            // Points are coincident
+            return;
+        }
+        final double disc = 1.0 / dsq - 1.0 / 4.0;
+        if (disc < 0.0) {
+            // Points are too far apart, scale the radii up
+            final float adjust = (float) (Math.sqrt(dsq) / 1.99999);
+            drawArc(p, x0, y0, x1, y1, a * adjust, b * adjust, theta,
+                    isMoreThanHalf, isPositiveArc);
+            return;
+        }
+        final double s = Math.sqrt(disc);
+        final double sdx = s * dx;
+        final double sdy = s * dy;
+        double cx;
+        double cy;
+        if (isMoreThanHalf == isPositiveArc) {
+            cx = xm - sdy;
+            cy = ym + sdx;
+        } else {
+            cx = xm + sdy;
+            cy = ym - sdx;
+        }
+
+        final double eta0 = Math.atan2((y0p - cy), (x0p - cx));
+        final double eta1 = Math.atan2((y1p - cy), (x1p - cx));
+
+        double sweep = (eta1 - eta0);
+        if (isPositiveArc != (sweep >= 0)) {
+            if (sweep > 0) {
+                sweep -= 2 * Math.PI;
+            } else {
+                sweep += 2 * Math.PI;
+            }
+        }
+
+        cx *= a;
+        cy *= b;
+        final double tcx = cx;
+        cx = cx * cosTheta - cy * sinTheta;
+        cy = tcx * sinTheta + cy * cosTheta;
+
+        arcToBezier(p, cx, cy, a, b, x0, y0, thetaD, eta0, sweep);
+    }
+
+    /**
+     * Converts an arc to cubic Bezier segments and records them in p.
+     *
+     * @param cx The x coordinate center of the ellipse
+     * @param cy The y coordinate center of the ellipse
+     * @param a The radius of the ellipse in the horizontal direction
+     * @param b The radius of the ellipse in the vertical direction
+     * @param e1x E(eta1) x coordinate of the starting point of the arc
+     * @param e1y E(eta2) y coordinate of the starting point of the arc
+     * @param theta The angle that the ellipse bounding rectangle makes with horizontal plane
+     * @param start The start angle of the arc on the ellipse
+     * @param sweep The angle (positive or negative) of the sweep of the arc on the ellipse
+     */
+    private static void arcToBezier(Path p, double cx, double cy, double a, double b,
+            double e1x, double e1y, double theta, double start, double sweep) {
+        // Maximum of 45 degrees per cubic Bezier segment
+        final int numSegments = (int) Math.ceil(Math.abs(sweep * 4 / Math.PI));
+
+        double eta1 = start;
+        final double cosTheta = Math.cos(theta);
+        final double sinTheta = Math.sin(theta);
+        final double cosEta1 = Math.cos(eta1);
+        final double sinEta1 = Math.sin(eta1);
+        double ep1x = (-a * cosTheta * sinEta1) - (b * sinTheta * cosEta1);
+        double ep1y = (-a * sinTheta * sinEta1) + (b * cosTheta * cosEta1);
+
+        final double anglePerSegment = sweep / numSegments;
+        for (int i = 0; i < numSegments; i++) {
+            final double eta2 = eta1 + anglePerSegment;
+            final double sinEta2 = Math.sin(eta2);
+            final double cosEta2 = Math.cos(eta2);
+            final double e2x = cx + (a * cosTheta * cosEta2) - (b * sinTheta * sinEta2);
+            final double e2y = cy + (a * sinTheta * cosEta2) + (b * cosTheta * sinEta2);
+            final double ep2x = -a * cosTheta * sinEta2 - b * sinTheta * cosEta2;
+            final double ep2y = -a * sinTheta * sinEta2 + b * cosTheta * cosEta2;
+            final double tanDiff2 = Math.tan((eta2 - eta1) / 2);
+            final double alpha =
+                    Math.sin(eta2 - eta1) * (Math.sqrt(4 + (3 * tanDiff2 * tanDiff2)) - 1) / 3;
+            final double q1x = e1x + alpha * ep1x;
+            final double q1y = e1y + alpha * ep1y;
+            final double q2x = e2x - alpha * ep2x;
+            final double q2y = e2y - alpha * ep2y;
+
+            p.cubicTo((float) q1x, (float) q1y, (float) q2x, (float) q2y,
+                    (float) e2x, (float) e2y);
+            eta1 = eta2;
+            e1x = e2x;
+            e1y = e2y;
+            ep1x = ep2x;
+            ep1y = ep2y;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import java.util.Arrays;
+
+/**
+ * Scans SVG path data into one verb array and one coordinate array.
+ * <p>
+ * A verb is the command letter, it takes a fixed number of coordinates, see
+ * {@link #getCoordCount(int)}. The numbers after a command which are more than
+ * it takes are stored as more verbs of the same command with {@link #VERB_REPEAT}
+ * set, so {@link #toPathData(byte[], float[])} gives the same commands back.
+ * <p>
+ * The numbers are parsed in place, and the buffers are reused by the next scan,
+ * so only the two result arrays are allocated for a path. It only depends on
+ * the JDK, so {@link CompiledVectorWriter} can use it at build time.
+ */
+final class PathDataScanner {
+
+    /**
+     * Set on the verbs which repeat the previous command implicitly.
+     */
+    static final int VERB_REPEAT = 0x80;
+    static final int VERB_MASK = 0x7f;
+
+    // More digits than a float can hold are dropped
+    private static final int MAX_DIGITS = 18;
+
+    // The powers of ten which are exact in double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private byte[] mVerbs = new byte[16];
+    private int mVerbCount;
+    private float[] mCoords = new float[64];
+    private int mCoordCount;
+    // The end of the number parsed by the last parseNumber()
+    private int mNumberEnd;
+
+    /**
+     * Returns how many coordinates the command takes, or -1 if it isn't a command.
+     */
+    static int getCoordCount(int verb) {
+        switch (verb & VERB_MASK) {
+            case 'z':
+            case 'Z':
+                return 0;
+            case 'h':
+            case 'H':
+            case 'v':
+            case 'V':
+                return 1;
+            case 'm':
+            case 'M':
+            case 'l':
+            case 'L':
+            case 't':
+            case 'T':
+                return 2;
+            case 's':
+            case 'S':
+            case 'q':
+            case 'Q':
+                return 4;
+            case 'c':
+            case 'C':
+                return 6;
+            case 'a':
+            case 'A':
+                return 7;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Scans the path data, the previous result is dropped.
+     *
+     * @throws IllegalArgumentException if the path data is malformed
+     */
+    public void scan(String pathData) {
+        mVerbCount = 0;
+        mCoordCount = 0;
+
+        final int length = pathData.length();
+        int i = skipSeparators(pathData, 0);
+        while (i < length) {
+            final char command = pathData.charAt(i);
+            final int coordCount = getCoordCount(command);
+            if (coordCount < 0) {
+                throw new IllegalArgumentException("Unknown command " + command
+                        + " at " + i + " in " + pathData);
+            }
+            i = skipSeparators(pathData, i + 1);
+
+            if (coordCount == 0) {
+                addVerb(command);
+                continue;
+            }
+
+            int verb = command;
+            while (i < length && isNumberStart(pathData.charAt(i))) {
+                addVerb(verb);
+                for (int j = 0; j < coordCount; j++) {
+                    if (i >= length || !isNumberStart(pathData.charAt(i))) {
+                        throw new IllegalArgumentException("Command " + command
+                                + " needs " + coordCount + " numbers in " + pathData);
+                    }
+                    addCoord(parseNumber(pathData, i));
+                    i = skipSeparators(pathData, mNumberEnd);
+                }
+                verb = command | VERB_REPEAT;
+            }
+        }
+    }
+
+    /**
+     * Returns the verbs of the last scan.
+     */
+    public byte[] getVerbs() {
+        return Arrays.copyOf(mVerbs, mVerbCount);
+    }
+
+    /**
+     * Returns the coordinates of the last scan.
+     */
+    public float[] getCoords() {
+        return Arrays.copyOf(mCoords, mCoordCount);
+    }
+
+    /**
+     * Formats the verbs and coordinates back to path data.
+     */
+    static String toPathData(byte[] verbs, float[] coords) {
+        final StringBuilder sb = new StringBuilder(verbs.length * 4 + coords.length * 8);
+        int coordIndex = 0;
+        for (byte verb : verbs) {
+            if ((verb & VERB_REPEAT) == 0) {
+                sb.append((char) verb);
+            }
+            final int coordCount = getCoordCount(verb);
+            for (int i = 0; i < coordCount; i++) {
+                sb.append(coords[coordIndex++]).append(' ');
+            }
+        }
+        return sb.toString();
+    }
+
+    private void addVerb(int verb) {
+        if (mVerbCount == mVerbs.length) {
+            mVerbs = Arrays.copyOf(mVerbs, mVerbCount * 2);
+        }
+        mVerbs[mVerbCount++] = (byte) verb;
+    }
+
+    private void addCoord(float coord) {
+        if (mCoordCount == mCoords.length) {
+            mCoords = Arrays.copyOf(mCoords, mCoordCount * 2);
+        }
+        mCoords[mCoordCount++] = coord;
+    }
+
+    private static int skipSeparators(String s, int i) {
+        final int length = s.length();
+        while (i < length) {
+            final char c = s.charAt(i);
+            if (c != ' ' && c != ',' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isNumberStart(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+    }
+
+    /**
+     * Parses the number at start without substring, the end is saved to mNumberEnd.
+     * The numbers are split the same way as PathParser. A sign starts a new number
+     * unless it follows an exponent, and a second dot starts a new number, so "1-2"
+     * and "1.5.5" are two numbers. The result may differ from
+     * {@link Float#parseFloat(String)} in the last bit.
+     */
+    private float parseNumber(String s, int start) {
+        final int length = s.length();
+        int i = start;
+        boolean negative = false;
+        char c = s.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean dot = false;
+        boolean hasDigit = false;
+        for (; i < length; i++) {
+            c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasDigit = true;
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        // Leading zeros are not counted
+                        digits++;
+                    }
+                    if (dot) {
+                        exponent--;
+                    }
+                } else if (!dot) {
+                    exponent++;
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (!hasDigit) {
+            throw badNumber(s, start);
+        }
+
+        if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                negativeExponent = s.charAt(i) == '-';
+                i++;
+            }
+            int e = 0;
+            boolean hasExponentDigit = false;
+            for (; i < length; i++) {
+                c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                hasExponentDigit = true;
+                // Far beyond the range of float
+                if (e < 10000) {
+                    e = e * 10 + (c - '0');
+                }
+            }
+            if (!hasExponentDigit) {
+                throw badNumber(s, start);
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        mNumberEnd = i;
+
+        double value = mantissa;
+        if (mantissa != 0 && exponent != 0) {
+            if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+                value /= POWERS_OF_TEN[-exponent];
+            } else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+                value *= POWERS_OF_TEN[exponent];
+            } else {
+                value *= Math.pow(10, exponent);
+            }
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    private static IllegalArgumentException badNumber(String s, int start) {
+        return new IllegalArgumentException("Bad number at " + start + " in " + s);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.graphics.Path;
+import android.graphics.PathMeasure;
+
+import java.util.Arrays;
+
+/**
+ * Builds a coarse polyline copy of a filled path for small renders. It isn't
+ * for stroked paths, PathMeasure skips zero length contours and short
+ * contours are dropped, but a stroke makes them visible.
+ * <p>
+ * Each contour is flattened by sampling it along its length at most the
+ * tolerance apart, so the samples are within half of the tolerance from the
+ * contour. Then the points which are within half of the tolerance of the
+ * line between their neighbours are merged by Douglas-Peucker. The two
+ * errors add up to the tolerance at most. Contours shorter than twice the
+ * tolerance are dropped, and contours which need more than MAX_SAMPLES
+ * samples are copied exactly.
+ */
+class PathSimplifier {
+
+    // Cap the points of a contour, longer contours are not simplified.
+    private static final int MAX_SAMPLES = 4096;
+
+    private final PathMeasure mPathMeasure = new PathMeasure();
+    private final float[] mPos = new float[2];
+    private float[] mPoints = new float[64];
+    private boolean[] mKeep = new boolean[32];
+    private int[] mStack = new int[64];
+
+    /**
+     * Simplifies src into dst.
+     *
+     * @param tolerance the max distance in the coordinates of the path
+     * @return the number of verbs of dst, or Integer.MAX_VALUE if a contour
+     *         is copied exactly, its verbs can't be counted
+     */
+    public int simplify(Path src, float tolerance, Path dst) {
+        int verbCount = 0;
+        dst.reset();
+        dst.setFillType(src.getFillType());
+
+        final PathMeasure pathMeasure = mPathMeasure;
+        pathMeasure.setPath(src, false);
+        do {
+            final float length = pathMeasure.getLength();
+            if (length < tolerance * 2) {
+                // Smaller than the tolerance in all directions
+                continue;
+            }
+
+            final int count = (int) Math.ceil(length / tolerance);
+            if (count > MAX_SAMPLES) {
+                // A larger step would cut the corners by more than the tolerance
+                pathMeasure.getSegment(0, length, dst, true);
+                if (pathMeasure.isClosed()) {
+                    dst.close();
+                }
+                verbCount = Integer.MAX_VALUE;
+                continue;
+            }
+            final float step = length / count;
+            final int pointCount = count + 1;
+            ensureCapacity(pointCount);
+            final float[] points = mPoints;
+            for (int i = 0; i < pointCount; i++) {
+                pathMeasure.getPosTan(Math.min(i * step, length), mPos, null);
+                points[i * 2] = mPos[0];
+                points[i * 2 + 1] = mPos[1];
+            }
+
+            mergePoints(pointCount, tolerance / 2);
+
+            final boolean[] keep = mKeep;
+            int contourVerbCount = 1;
+            dst.moveTo(points[0], points[1]);
+            for (int i = 1; i < pointCount; i++) {
+                if (keep[i]) {
+                    dst.lineTo(points[i * 2], points[i * 2 + 1]);
+                    contourVerbCount++;
+                }
+            }
+            if (pathMeasure.isClosed()) {
+                dst.close();
+                contourVerbCount++;
+            }
+            if (verbCount != Integer.MAX_VALUE) {
+                verbCount += contourVerbCount;
+            }
+        } while (pathMeasure.nextContour());
+
+        // Don't hold the source path
+        pathMeasure.setPath(null, false);
+        return verbCount;
+    }
+
+    private void ensureCapacity(int pointCount) {
+        if (mKeep.length < pointCount) {
+            final int capacity = Math.max(pointCount, mKeep.length * 2);
+            mPoints = new float[capacity * 2];
+            mKeep = new boolean[capacity];
+            mStack = new int[capacity * 2];
+        }
+    }
+
+    /**
+     * Douglas-Peucker, keeps the points which are further than the
+     * tolerance from the line of the kept points around them.
+     */
+    private void mergePoints(int pointCount, float tolerance) {
+        final float[] points = mPoints;
+        final boolean[] keep = mKeep;
+        final int[] stack = mStack;
+        Arrays.fill(keep, 0, pointCount, false);
+        keep[0] = true;
+        keep[pointCount - 1] = true;
+
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = pointCount - 1;
+        while (top > 0) {
+            final int last = stack[--top];
+            final int first = stack[--top];
+            if (last - first < 2) {
+                continue;
+            }
+
+            final float x1 = points[first * 2];
+            final float y1 = points[first * 2 + 1];
+            final float dx = points[last * 2] - x1;
+            final float dy = points[last * 2 + 1] - y1;
+            final float lengthSquared = dx * dx + dy * dy;
+
+            float maxDistance = -1;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                final float px = points[i * 2] - x1;
+                final float py = points[i * 2 + 1] - y1;
+                // The distance to the segment, not the line, so spikes are kept
+                final float t = lengthSquared == 0
+                        ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+                final float distance = (float) Math.hypot(px - t * dx, py - t * dy);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    index = i;
+                }
+            }
+
+            if (maxDistance > tolerance) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+    }
+}
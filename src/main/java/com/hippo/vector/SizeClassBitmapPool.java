@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * A {@link BitmapPool} which groups bitmaps into power-of-two size classes
+ * by their allocation size.
+ * <p>
+ * On KitKat and above, any pooled bitmap large enough is reconfigured to the
+ * requested size and config, and only bitmaps of the same or the next size
+ * class are considered, so at most 4x of the memory is wasted. Below KitKat,
+ * only a bitmap with the exact size and config can be reused.
+ */
+public class SizeClassBitmapPool implements BitmapPool {
+
+    private final SparseArray<ArrayList<Bitmap>> mClasses = new SparseArray<>();
+    private int mMaxSize;
+    private int mSize;
+
+    /**
+     * @param maxSize the max bytes of bitmaps to keep
+     */
+    public SizeClassBitmapPool(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    private static int getSizeClass(int size) {
+        // The smallest n which makes (1 << n) >= size
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case ARGB_8888:
+            default:
+                return 4;
+        }
+    }
+
+    @Override
+    public synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        final int size = width * height * getBytesPerPixel(config);
+        final int sizeClass = getSizeClass(size);
+        final boolean canReconfigure = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+        for (int c = sizeClass, end = canReconfigure ? sizeClass + 1 : sizeClass; c <= end; c++) {
+            final ArrayList<Bitmap> bitmaps = mClasses.get(c);
+            if (bitmaps == null) {
+                continue;
+            }
+            for (int i = bitmaps.size() - 1; i >= 0; i--) {
+                final Bitmap bitmap = bitmaps.get(i);
+                if (canReconfigure) {
+                    if (bitmap.getAllocationByteCount() < size) {
+                        continue;
+                    }
+                    bitmaps.remove(i);
+                    mSize -= VectorRasterCache.getBitmapSize(bitmap);
+                    bitmap.reconfigure(width, height, config);
+                    return bitmap;
+                } else if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                        && bitmap.getConfig() == config) {
+                    bitmaps.remove(i);
+                    mSize -= VectorRasterCache.getBitmapSize(bitmap);
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void put(@NonNull Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+
+        final int size = VectorRasterCache.getBitmapSize(bitmap);
+        if (size > mMaxSize) {
+            return;
+        }
+
+        final int sizeClass = getSizeClass(size);
+        ArrayList<Bitmap> bitmaps = mClasses.get(sizeClass);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<>();
+            mClasses.put(sizeClass, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mSize += size;
+        trimToSize(mMaxSize);
+    }
+
+    @Override
+    public synchronized void clear() {
+        trimToSize(-1);
+    }
+
+    private void trimToSize(int maxSize) {
+        // Drop the largest bitmaps first, they are the hardest to reuse.
+        for (int i = mClasses.size() - 1; i >= 0 && mSize > maxSize; i--) {
+            final ArrayList<Bitmap> bitmaps = mClasses.valueAt(i);
+            while (!bitmaps.isEmpty() && mSize > maxSize) {
+                final Bitmap bitmap = bitmaps.remove(0);
+                mSize -= VectorRasterCache.getBitmapSize(bitmap);
+            }
+        }
+    }
+}
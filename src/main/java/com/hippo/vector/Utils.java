@@ -23,6 +23,7 @@ import android.graphics.PorterDuff;
 import android.graphics.PorterDuffColorFilter;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.util.TypedValue;
 
 class Utils {
 
@@ -80,6 +81,14 @@ class Utils {
         }
     }
 
+    public static int getChangingConfigurations(TypedValue value) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return value.changingConfigurations;
+        } else {
+            return 0;
+        }
+    }
+
     public static int getChangingConfigurations(ColorStateList colorStateList) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             return colorStateList.getChangingConfigurations();
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * An optional disk tier under {@link VectorRasterCache}. Rasters of vectors
+ * created by {@link VectorDrawable#create(Context, int)} and prepared by
+ * {@link VectorDrawable#prepareAsync} are written to the disk, then the next
+ * launch reads the pixels back instead of running the renderer again.
+ * It is never used on the UI thread.
+ * <p>
+ * A raster is keyed by resource id, density, the configuration qualifiers
+ * the resource varies by, pixel size and the version stamp of the app.
+ * Vectors which refer to theme attributes are not saved, the theme can't be
+ * keyed stably. Files written by other versions are deleted when they are
+ * read. Each file has a CRC32 of its pixels, broken files are deleted too.
+ *
+ * @see VectorRasterCache#setDiskCache(VectorDiskCache)
+ */
+public final class VectorDiskCache {
+    private static final String LOGTAG = VectorDiskCache.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "vector_rasters";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x56524331; // VRC1
+
+    // The read buffer is kept for rasters up to 512 x 512 ARGB_8888
+    private static final int MAX_KEPT_BUFFER_SIZE = 1024 * 1024;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final long mVersionStamp;
+
+    // All disk writes and eviction are done on this executor.
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    // The total bytes of the files, -1 if the directory is not scanned yet.
+    // Only accessed on mExecutor.
+    private long mSize = -1;
+
+    // Reused by load(), guarded by itself
+    private final Object mReadLock = new Object();
+    private byte[] mReadBuffer;
+
+    /**
+     * @param directory the directory to put files in
+     * @param maxSize the max bytes of all files
+     * @param versionStamp files with another stamp are discarded
+     */
+    public VectorDiskCache(@NonNull File directory, long maxSize, long versionStamp) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        mVersionStamp = versionStamp;
+    }
+
+    /**
+     * Creates a disk cache in the cache dir of the context, stamped with
+     * the version code and the last update time of the app.
+     */
+    public static VectorDiskCache create(@NonNull Context context, long maxSize) {
+        long versionStamp = 0;
+        try {
+            final PackageInfo info = context.getPackageManager().getPackageInfo(
+                    context.getPackageName(), 0);
+            versionStamp = ((long) info.versionCode << 32) ^ info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(LOGTAG, "Can't get package info", e);
+        }
+        return new VectorDiskCache(new File(context.getCacheDir(), DIRECTORY_NAME),
+                maxSize, versionStamp);
+    }
+
+    /**
+     * Returns a stable hash of the configuration fields which the resource is
+     * selected by. The density is keyed on its own.
+     *
+     * @param changingConfigurations the ActivityInfo.CONFIG_* bits the resource
+     *                               and its values vary by, all the fields are
+     *                               keyed before Lollipop, they are unknown
+     */
+    static long getConfigurationKey(Configuration config, int changingConfigurations) {
+        final int changes = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? changingConfigurations : 0xffffffff;
+        final StringBuilder sb = new StringBuilder();
+        sb.append(Build.VERSION.SDK_INT);
+        if ((changes & ActivityInfo.CONFIG_MCC) != 0) {
+            sb.append(",mcc").append(config.mcc);
+        }
+        if ((changes & ActivityInfo.CONFIG_MNC) != 0) {
+            sb.append(",mnc").append(config.mnc);
+        }
+        if ((changes & ActivityInfo.CONFIG_LOCALE) != 0) {
+            sb.append(",locale").append(config.locale);
+        }
+        if ((changes & ActivityInfo.CONFIG_TOUCHSCREEN) != 0) {
+            sb.append(",touchscreen").append(config.touchscreen);
+        }
+        if ((changes & ActivityInfo.CONFIG_KEYBOARD) != 0) {
+            sb.append(",keyboard").append(config.keyboard);
+        }
+        if ((changes & ActivityInfo.CONFIG_KEYBOARD_HIDDEN) != 0) {
+            sb.append(",keyboardHidden").append(config.keyboardHidden)
+                    .append(",navigationHidden").append(config.navigationHidden);
+        }
+        if ((changes & ActivityInfo.CONFIG_NAVIGATION) != 0) {
+            sb.append(",navigation").append(config.navigation);
+        }
+        if ((changes & ActivityInfo.CONFIG_ORIENTATION) != 0) {
+            sb.append(",orientation").append(config.orientation);
+        }
+        // The layout direction is in the screen layout
+        if ((changes & (ActivityInfo.CONFIG_SCREEN_LAYOUT
+                | ActivityInfo.CONFIG_LAYOUT_DIRECTION)) != 0) {
+            sb.append(",screenLayout").append(config.screenLayout);
+        }
+        if ((changes & ActivityInfo.CONFIG_UI_MODE) != 0) {
+            sb.append(",uiMode").append(config.uiMode);
+        }
+        if ((changes & ActivityInfo.CONFIG_SCREEN_SIZE) != 0) {
+            sb.append(",screenSize").append(config.screenWidthDp)
+                    .append('x').append(config.screenHeightDp);
+        }
+        if ((changes & ActivityInfo.CONFIG_SMALLEST_SCREEN_SIZE) != 0) {
+            sb.append(",smallestScreenSize").append(config.smallestScreenWidthDp);
+        }
+
+        // 64-bit FNV-1a, String.hashCode() is too short to be a file key
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, n = sb.length(); i < n; i++) {
+            hash ^= sb.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private File getFile(int resId, int density, long configKey, VectorRasterCache.Key key,
+            Bitmap.Config config) {
+        return new File(mDirectory, Integer.toHexString(resId) + '_' + density + '_'
+                + Long.toHexString(configKey)
+                + '_' + key.mWidth + 'x' + key.mHeight + '_' + key.mTileX + '_' + key.mTileY
+                + '_' + config.ordinal());
+    }
+
+    /**
+     * Reads the pixels of the raster to the bitmap.
+     *
+     * @return false if there is no such raster
+     */
+    boolean load(int resId, int density, long configKey, VectorRasterCache.Key key,
+            Bitmap bitmap) {
+        final Bitmap.Config config = bitmap.getConfig();
+        if (config == null) {
+            return false;
+        }
+        final File file = getFile(resId, density, configKey, key, config);
+        if (!file.isFile()) {
+            return false;
+        }
+
+        boolean broken = true;
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (is.readInt() != MAGIC || is.readLong() != mVersionStamp) {
+                return false;
+            }
+            final int width = is.readInt();
+            final int height = is.readInt();
+            final int byteCount = is.readInt();
+            final long crc = is.readLong();
+            if (width != bitmap.getWidth() || height != bitmap.getHeight()
+                    || byteCount != bitmap.getByteCount()) {
+                return false;
+            }
+
+            synchronized (mReadLock) {
+                byte[] pixels = mReadBuffer;
+                if (pixels == null || pixels.length < byteCount) {
+                    pixels = new byte[byteCount];
+                    if (byteCount <= MAX_KEPT_BUFFER_SIZE) {
+                        mReadBuffer = pixels;
+                    }
+                }
+                is.readFully(pixels, 0, byteCount);
+                final CRC32 crc32 = new CRC32();
+                crc32.update(pixels, 0, byteCount);
+                if (crc32.getValue() != crc) {
+                    return false;
+                }
+
+                bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels, 0, byteCount));
+            }
+            broken = false;
+        } catch (IOException e) {
+            Log.w(LOGTAG, "Can't read " + file, e);
+        } finally {
+            closeQuietly(is);
+            if (broken) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+
+        if (broken) {
+            return false;
+        }
+
+        // Make it the most recently used
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Writes the pixels of the bitmap to the disk. The pixels are copied
+     * at once on the calling thread, the file is written later on the executor.
+     */
+    void save(int resId, int density, long configKey, VectorRasterCache.Key key,
+            Bitmap bitmap) {
+        final Bitmap.Config config = bitmap.getConfig();
+        if (config == null) {
+            return;
+        }
+        final File file = getFile(resId, density, configKey, key, config);
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final byte[] pixels = new byte[bitmap.getByteCount()];
+        bitmap.copyPixelsToBuffer(ByteBuffer.wrap(pixels));
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, width, height, pixels);
+            }
+        });
+    }
+
+    private void write(File file, int width, int height, byte[] pixels) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOGTAG, "Can't create " + mDirectory);
+            return;
+        }
+        ensureSize();
+
+        final CRC32 crc32 = new CRC32();
+        crc32.update(pixels);
+
+        // Write to a temp file then rename it, so a file is never half written.
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        DataOutputStream os = null;
+        boolean success = false;
+        long oldLength = 0;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            os.writeInt(MAGIC);
+            os.writeLong(mVersionStamp);
+            os.writeInt(width);
+            os.writeInt(height);
+            os.writeInt(pixels.length);
+            os.writeLong(crc32.getValue());
+            os.write(pixels);
+            os.close();
+            os = null;
+            // The file of the same key is replaced
+            oldLength = file.length();
+            success = temp.renameTo(file);
+        } catch (IOException e) {
+            Log.w(LOGTAG, "Can't write " + file, e);
+        } finally {
+            closeQuietly(os);
+            if (!success) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
+
+        if (success) {
+            mSize += file.length() - oldLength;
+            trimToSize();
+        }
+    }
+
+    private void ensureSize() {
+        if (mSize >= 0) {
+            return;
+        }
+        mSize = 0;
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                mSize += f.length();
+            }
+        }
+    }
+
+    private void trimToSize() {
+        if (mSize <= mMaxSize) {
+            return;
+        }
+
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long l = lhs.lastModified();
+                final long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        // Drop the least recently used files first
+        mSize = 0;
+        for (File f : files) {
+            mSize += f.length();
+        }
+        for (int i = 0; i < files.length && mSize > mMaxSize; i++) {
+            final long length = files[i].length();
+            if (files[i].delete()) {
+                mSize -= length;
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@
 
 package com.hippo.vector;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.content.res.Resources;
@@ -26,6 +27,7 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PathMeasure;
+import android.graphics.Picture;
 import android.graphics.PixelFormat;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.PorterDuffColorFilter;
@@ -33,6 +35,8 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.util.ArrayMap;
@@ -40,6 +44,7 @@ import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.LayoutDirection;
 import android.util.Log;
+import android.util.TypedValue;
 import android.util.Xml;
 
 import com.hippo.anani.PathParser;
@@ -49,8 +54,13 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Stack;
+import java.util.concurrent.Executor;
 
 /**
  * This lets you create a drawable based on an XML vector graphic. It can be
@@ -188,6 +198,28 @@ import java.util.Stack;
 public class VectorDrawable extends Drawable {
     private static final String LOGTAG = VectorDrawable.class.getSimpleName();
 
+    /**
+     * Cache one raster for the whole drawable, up to 2048 pixels on each side.
+     */
+    public static final int CACHE_MODE_BITMAP = 0;
+    /**
+     * Cache fixed-size tiles, only the tiles in the clip bounds are rasterized.
+     */
+    public static final int CACHE_MODE_TILED = 1;
+    /**
+     * Cache a {@link Picture} recorded in the viewport space, and replay it at any size.
+     * It is recorded again only when the paths or groups are changed. It falls back to
+     * {@link #CACHE_MODE_BITMAP} on hardware accelerated canvas before Marshmallow.
+     */
+    public static final int CACHE_MODE_PICTURE = 2;
+    /**
+     * Cache one raster at the largest size drawn, and mipmap levels halved from it.
+     * Smaller sizes are drawn from the nearest larger level, so a vector shown at
+     * many sizes at once is rasterized only once. A size with another aspect ratio
+     * is rasterized as {@link #CACHE_MODE_BITMAP}.
+     */
+    public static final int CACHE_MODE_MIPMAP = 3;
+
     private static final Mode DEFAULT_TINT_MODE = Mode.SRC_IN;
 
     private static final String SHAPE_CLIP_PATH = "clip-path";
@@ -208,8 +240,14 @@ public class VectorDrawable extends Drawable {
     // The drawable will look blurry above this size.
     private static final int MAX_CACHED_BITMAP_SIZE = 2048;
 
+    // Tiles are rasterized at the exact size, only cap it to avoid overflow.
+    private static final int MAX_TILED_BITMAP_SIZE = 1 << 15;
+    private static final int TILE_SIZE = 256;
+
     private static final boolean DBG_VECTOR_DRAWABLE = false;
 
+    private static Handler sMainHandler;
+
     private VectorDrawableState mVectorState;
 
     private PorterDuffColorFilter mTintFilter;
@@ -231,6 +269,9 @@ public class VectorDrawable extends Drawable {
     private final float[] mTmpFloats = new float[9];
     private final Matrix mTmpMatrix = new Matrix();
     private final Rect mTmpBounds = new Rect();
+    private final Rect mTmpClipBounds = new Rect();
+    private final RectF mTmpRectF = new RectF();
+    private final VectorRasterCache.Key mTmpKey = new VectorRasterCache.Key();
 
     public VectorDrawable() {
         this(null, null);
@@ -260,7 +301,9 @@ public class VectorDrawable extends Drawable {
     }
 
     public Object getTargetByName(String name) {
-        return mVectorState.mVPathRenderer.mVGTargetsMap.get(name);
+        // The target may be changed, the rasters on the disk are not trusted anymore.
+        mVectorState.mTargetsExposed = true;
+        return mVectorState.mVPathRenderer.getTarget(name);
     }
 
     @Override
@@ -293,8 +336,10 @@ public class VectorDrawable extends Drawable {
         float canvasScaleY = Math.abs(mTmpFloats[Matrix.MSCALE_Y]);
         int scaledWidth = (int) (mTmpBounds.width() * canvasScaleX);
         int scaledHeight = (int) (mTmpBounds.height() * canvasScaleY);
-        scaledWidth = Math.min(MAX_CACHED_BITMAP_SIZE, scaledWidth);
-        scaledHeight = Math.min(MAX_CACHED_BITMAP_SIZE, scaledHeight);
+        final boolean tiled = mVectorState.mCacheMode == CACHE_MODE_TILED;
+        final int maxSize = tiled ? MAX_TILED_BITMAP_SIZE : MAX_CACHED_BITMAP_SIZE;
+        scaledWidth = Math.min(maxSize, scaledWidth);
+        scaledHeight = Math.min(maxSize, scaledHeight);
 
         if (scaledWidth <= 0 || scaledHeight <= 0) {
             return;
@@ -315,19 +360,171 @@ public class VectorDrawable extends Drawable {
         // we offset to (0, 0);
         mTmpBounds.offsetTo(0, 0);
 
-        mVectorState.createCachedBitmapIfNeeded(scaledWidth, scaledHeight);
-        if (!mAllowCaching) {
-            mVectorState.updateCachedBitmap(scaledWidth, scaledHeight);
+        final Bitmap.Config config = mVectorState.getCacheConfig(
+                mColorFilter == null && mTintFilter != null);
+        if (mVectorState.mCacheMode == CACHE_MODE_PICTURE && canDrawPicture(canvas)) {
+            drawPicture(canvas, colorFilter);
+        } else if (tiled) {
+            drawTiles(canvas, colorFilter, config, scaledWidth, scaledHeight);
+        } else if (mVectorState.mCacheMode == CACHE_MODE_MIPMAP && mAllowCaching) {
+            final VectorRasterCache.Entry entry = mVectorState.prepareMipmapEntry(mTmpKey,
+                    config, scaledWidth, scaledHeight, false);
+            mVectorState.drawCachedBitmapWithRootAlpha(canvas, entry.mBitmap, colorFilter,
+                    mTmpBounds);
         } else {
-            if (!mVectorState.canReuseCache()) {
-                mVectorState.updateCachedBitmap(scaledWidth, scaledHeight);
-                mVectorState.updateCacheStates();
-            }
+            // All drawables of the same constant state share the rasters, one for each size.
+            mTmpKey.set(mVectorState, scaledWidth, scaledHeight);
+            final VectorRasterCache.Entry entry = mVectorState.prepareCacheEntry(mTmpKey,
+                    config, !mAllowCaching, false);
+            mVectorState.drawCachedBitmapWithRootAlpha(canvas, entry.mBitmap, colorFilter,
+                    mTmpBounds);
         }
-        mVectorState.drawCachedBitmapWithRootAlpha(canvas, colorFilter, mTmpBounds);
         canvas.restoreToCount(saveCount);
     }
 
+    private static boolean canDrawPicture(Canvas canvas) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M || !canvas.isHardwareAccelerated();
+    }
+
+    /*
+     * Replays the picture scaled to the bounds. The canvas must have been translated
+     * to the bounds, and mTmpBounds offset to (0, 0).
+     */
+    private void drawPicture(Canvas canvas, ColorFilter colorFilter) {
+        final VPathRenderer renderer = mVectorState.mVPathRenderer;
+        final Picture picture = mVectorState.preparePicture();
+
+        // The root alpha and the color filter can't be baked into the picture
+        final Paint p = mVectorState.getPaint(colorFilter);
+        if (p != null) {
+            canvas.saveLayer(0, 0, mTmpBounds.width(), mTmpBounds.height(), p,
+                    Canvas.ALL_SAVE_FLAG);
+        }
+        canvas.scale(mTmpBounds.width() / renderer.mViewportWidth,
+                mTmpBounds.height() / renderer.mViewportHeight);
+        canvas.drawPicture(picture);
+    }
+
+    /*
+     * Splits the scaled drawable into tiles of TILE_SIZE, then rasterizes and draws
+     * the tiles in the clip bounds. The canvas must have been translated to the
+     * bounds, and mTmpBounds offset to (0, 0).
+     */
+    private void drawTiles(Canvas canvas, ColorFilter colorFilter, Bitmap.Config config,
+            int scaledWidth, int scaledHeight) {
+        if (!canvas.getClipBounds(mTmpClipBounds) || !mTmpClipBounds.intersect(mTmpBounds)) {
+            // Nothing is visible
+            return;
+        }
+
+        final float scaleX = (float) scaledWidth / mTmpBounds.width();
+        final float scaleY = (float) scaledHeight / mTmpBounds.height();
+        final int firstX = (int) (mTmpClipBounds.left * scaleX) / TILE_SIZE;
+        final int firstY = (int) (mTmpClipBounds.top * scaleY) / TILE_SIZE;
+        final int lastX = (Math.min((int) Math.ceil(mTmpClipBounds.right * scaleX),
+                scaledWidth) - 1) / TILE_SIZE;
+        final int lastY = (Math.min((int) Math.ceil(mTmpClipBounds.bottom * scaleY),
+                scaledHeight) - 1) / TILE_SIZE;
+
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                final int left = x * TILE_SIZE;
+                final int top = y * TILE_SIZE;
+                final int width = Math.min(TILE_SIZE, scaledWidth - left);
+                final int height = Math.min(TILE_SIZE, scaledHeight - top);
+
+                mTmpKey.set(mVectorState, scaledWidth, scaledHeight).setTile(x, y);
+                final VectorRasterCache.Entry entry = mVectorState.prepareCacheEntry(mTmpKey,
+                        config, !mAllowCaching, false);
+                mTmpRectF.set(left / scaleX, top / scaleY,
+                        (left + width) / scaleX, (top + height) / scaleY);
+                mVectorState.drawCachedBitmapWithRootAlpha(canvas, entry.mBitmap, colorFilter,
+                        mTmpRectF);
+            }
+        }
+    }
+
+    /**
+     * Rasterizes the drawable at width x height pixels on the executor, so that
+     * a later draw() at this size only draws the cached raster. It is useful to
+     * warm up complex vectors during splash or prefetch.
+     * <p>
+     * The current tint and color filter are taken into account.
+     * Don't prepare a drawable which is being animated.
+     *
+     * @param width the width in pixels, the same as the bounds width multiplied
+     *              by the canvas scale
+     * @param height the height in pixels
+     * @param executor the executor to rasterize on
+     * @param listener called on the main thread when it is done, may be null
+     */
+    public void prepareAsync(int width, int height, @NonNull Executor executor,
+            @Nullable final OnPreparedListener listener) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("width and height must be > 0");
+        }
+
+        final VectorDrawableState state = mVectorState;
+        final boolean tiled = state.mCacheMode == CACHE_MODE_TILED;
+        final int maxSize = tiled ? MAX_TILED_BITMAP_SIZE : MAX_CACHED_BITMAP_SIZE;
+        final int scaledWidth = Math.min(maxSize, width);
+        final int scaledHeight = Math.min(maxSize, height);
+        final Bitmap.Config config = state.getCacheConfig(
+                mColorFilter == null && mTintFilter != null);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The evicted rasters are not reused while this thread may draw them
+                VectorRasterCache.beginBackgroundPrepare();
+                try {
+                    final VectorRasterCache.Key key = new VectorRasterCache.Key();
+                    if (state.mCacheMode == CACHE_MODE_PICTURE) {
+                        // The picture is size independent, but the bitmap fallback is not.
+                        state.preparePicture();
+                        key.set(state, scaledWidth, scaledHeight);
+                        state.prepareCacheEntry(key, config, false, true);
+                    } else if (tiled) {
+                        final int tileCountX = (scaledWidth + TILE_SIZE - 1) / TILE_SIZE;
+                        final int tileCountY = (scaledHeight + TILE_SIZE - 1) / TILE_SIZE;
+                        for (int y = 0; y < tileCountY; y++) {
+                            for (int x = 0; x < tileCountX; x++) {
+                                key.set(state, scaledWidth, scaledHeight).setTile(x, y);
+                                state.prepareCacheEntry(key, config, false, true);
+                            }
+                        }
+                    } else if (state.mCacheMode == CACHE_MODE_MIPMAP) {
+                        state.prepareMipmapEntry(key, config, scaledWidth, scaledHeight,
+                                true);
+                    } else {
+                        key.set(state, scaledWidth, scaledHeight);
+                        state.prepareCacheEntry(key, config, false, true);
+                    }
+                } finally {
+                    VectorRasterCache.endBackgroundPrepare();
+                }
+
+                if (listener != null) {
+                    getMainHandler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onPrepared(VectorDrawable.this);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    static Handler getMainHandler() {
+        synchronized (VectorDrawable.class) {
+            if (sMainHandler == null) {
+                sMainHandler = new Handler(Looper.getMainLooper());
+            }
+            return sMainHandler;
+        }
+    }
+
     @Override
     public int getAlpha() {
         return mVectorState.mVPathRenderer.getRootAlpha();
@@ -477,7 +674,18 @@ public class VectorDrawable extends Drawable {
         return Math.min(scaleX, scaleY);
     }
 
+    /**
+     * Inflates the vector resource. The inflated constant state is cached, so the
+     * drawables of the same resource, density, layout direction and theme share it,
+     * like the drawables from {@link Resources}. Call {@link #mutate()} before
+     * changing the state of the drawable, such as the tint or the targets.
+     */
     public static VectorDrawable create(Context context, int rid) {
+        final ConstantState cachedState = ConstantStateCache.get(context, rid);
+        if (cachedState != null) {
+            return (VectorDrawable) cachedState.newDrawable(context.getResources());
+        }
+
         try {
             final XmlPullParser parser = context.getResources().getXml(rid);
             final AttributeSet attrs = Xml.asAttributeSet(parser);
@@ -497,7 +705,17 @@ public class VectorDrawable extends Drawable {
 
             final VectorDrawable drawable = new VectorDrawable();
             drawable.inflate(context, parser, attrs);
-
+            // Remember where it comes from for the disk cache
+            drawable.mVectorState.mResId = rid;
+            final TypedValue value = new TypedValue();
+            context.getResources().getValue(rid, value, true);
+            drawable.mVectorState.mConfigurationKey = VectorDiskCache.getConfigurationKey(
+                    context.getResources().getConfiguration(),
+                    drawable.getChangingConfigurations()
+                            | Utils.getChangingConfigurations(value));
+
+            ConstantStateCache.put(context, rid, drawable.getConstantState(),
+                    drawable.getChangingConfigurations());
             return drawable;
         } catch (XmlPullParserException e) {
             Log.e(LOGTAG, "parser error", e);
@@ -507,6 +725,21 @@ public class VectorDrawable extends Drawable {
         return null;
     }
 
+    /**
+     * Loads a vector compiled by {@link CompiledVectorWriter} from the buffer,
+     * without parsing XML or path data. The position of the buffer is not changed.
+     */
+    public static VectorDrawable create(Resources res, ByteBuffer buffer) {
+        try {
+            final VectorDrawable drawable = new VectorDrawable();
+            drawable.load(res, buffer);
+            return drawable;
+        } catch (IOException e) {
+            Log.e(LOGTAG, "compiled vector error", e);
+        }
+        return null;
+    }
+
     private static int applyAlpha(int color, float alpha) {
         int alphaBytes = Color.alpha(color);
         color &= 0x00FFFFFF;
@@ -517,19 +750,136 @@ public class VectorDrawable extends Drawable {
     public void inflate(Context context, XmlPullParser parser, AttributeSet attrs)
             throws XmlPullParserException, IOException {
         final VectorDrawableState state = mVectorState;
+        // It is a new tree, so the rasters of the previous one must be stale.
+        final int treeVersion = state.mVPathRenderer.mTreeVersion + 1;
         state.mVPathRenderer = new VPathRenderer();
+        state.mVPathRenderer.mTreeVersion = treeVersion;
 
         final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.VectorDrawable);
         updateStateFromTypedArray(a);
         a.recycle();
+        state.mThemeDependent = dependsOnTheme(context.getResources(), attrs);
 
-        state.mCacheDirty = true;
         inflateInternal(context, parser, attrs);
+        state.updateMonochrome();
 
         mTintFilter = Utils.updateTintFilter(this, mTintFilter, state.mTint, state.mTintMode);
         updateDimensionInfo(context.getResources(), true /* update constant state */);
     }
 
+    /**
+     * Loads a vector compiled by {@link CompiledVectorWriter}, like {@link #inflate}.
+     */
+    public void load(Resources res, ByteBuffer buffer) throws IOException {
+        final VectorDrawableState state = mVectorState;
+        // It is a new tree, so the rasters of the previous one must be stale.
+        final int treeVersion = state.mVPathRenderer.mTreeVersion + 1;
+        state.mVPathRenderer = new VPathRenderer();
+        state.mVPathRenderer.mTreeVersion = treeVersion;
+
+        final ByteBuffer data = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try {
+            CompiledVector.readHeader(data);
+            loadState(res, data);
+            loadInternal(data);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated compiled vector", e);
+        }
+        state.updateMonochrome();
+
+        mTintFilter = Utils.updateTintFilter(this, mTintFilter, state.mTint, state.mTintMode);
+        updateDimensionInfo(res, true /* update constant state */);
+    }
+
+    private void loadState(Resources res, ByteBuffer data) throws IOException {
+        final VectorDrawableState state = mVectorState;
+        final VPathRenderer pathRenderer = state.mVPathRenderer;
+        final DisplayMetrics metrics = res.getDisplayMetrics();
+
+        final String name = CompiledVector.readString(data);
+        if (name != null) {
+            pathRenderer.mRootName = name;
+        }
+
+        final int flags = data.getInt();
+        state.mAutoMirrored = (flags & CompiledVector.FLAG_AUTO_MIRRORED) != 0;
+        setAllowCaching((flags & CompiledVector.FLAG_NO_CACHING) == 0);
+        pathRenderer.mCacheStrokeOutlines =
+                (flags & CompiledVector.FLAG_CACHE_STROKE_OUTLINES) != 0;
+
+        pathRenderer.mBaseWidth = readDimension(data, metrics);
+        pathRenderer.mBaseHeight = readDimension(data, metrics);
+        pathRenderer.mViewportWidth = data.getFloat();
+        pathRenderer.mViewportHeight = data.getFloat();
+        if (pathRenderer.mViewportWidth <= 0 || pathRenderer.mViewportHeight <= 0
+                || pathRenderer.mBaseWidth <= 0 || pathRenderer.mBaseHeight <= 0) {
+            throw new IOException("Invalid size of compiled vector");
+        }
+
+        pathRenderer.setAlpha(data.getFloat());
+        final int tint = data.getInt();
+        if ((flags & CompiledVector.FLAG_TINT) != 0) {
+            state.mTint = ColorStateList.valueOf(tint);
+        }
+        state.mTintMode = Utils.parseTintMode(data.getInt(), Mode.SRC_IN);
+        state.mCacheMode = data.getInt();
+
+        final int insetLeft = Math.round(readDimension(data, metrics));
+        final int insetTop = Math.round(readDimension(data, metrics));
+        final int insetRight = Math.round(readDimension(data, metrics));
+        final int insetBottom = Math.round(readDimension(data, metrics));
+        pathRenderer.mOpticalInsets = Insets.of(insetLeft, insetTop, insetRight, insetBottom);
+    }
+
+    private static float readDimension(ByteBuffer data, DisplayMetrics metrics) {
+        final int unit = data.get();
+        return TypedValue.applyDimension(unit, data.getFloat(), metrics);
+    }
+
+    private void loadInternal(ByteBuffer data) throws IOException {
+        final VPathRenderer pathRenderer = mVectorState.mVPathRenderer;
+
+        final Stack<VGroup> groupStack = new Stack<>();
+        groupStack.push(pathRenderer.mRootGroup);
+
+        int tag;
+        while ((tag = data.get()) != CompiledVector.TAG_END) {
+            final VGroup currentGroup = groupStack.peek();
+            switch (tag) {
+                case CompiledVector.TAG_PATH: {
+                    final VFullPath path = new VFullPath();
+                    path.mRenderer = pathRenderer;
+                    path.load(data);
+                    currentGroup.mChildren.add(path);
+                    break;
+                }
+                case CompiledVector.TAG_CLIP_PATH: {
+                    final VClipPath path = new VClipPath();
+                    path.mRenderer = pathRenderer;
+                    path.load(data);
+                    currentGroup.mChildren.add(path);
+                    break;
+                }
+                case CompiledVector.TAG_GROUP: {
+                    final VGroup newChildGroup = new VGroup();
+                    newChildGroup.mRenderer = pathRenderer;
+                    newChildGroup.load(data);
+                    currentGroup.mChildren.add(newChildGroup);
+                    groupStack.push(newChildGroup);
+                    break;
+                }
+                case CompiledVector.TAG_GROUP_END:
+                    if (groupStack.size() == 1) {
+                        throw new IOException("Unbalanced group in compiled vector");
+                    }
+                    groupStack.pop();
+                    break;
+                default:
+                    throw new IOException("Unknown tag " + tag + " in compiled vector");
+            }
+        }
+    }
+
     private void updateStateFromTypedArray(TypedArray a) throws XmlPullParserException {
         final VectorDrawableState state = mVectorState;
         final VPathRenderer pathRenderer = state.mVPathRenderer;
@@ -552,6 +902,11 @@ public class VectorDrawable extends Drawable {
 
         setAllowCaching(a.getBoolean(R.styleable.VectorDrawable_allowCaching, true));
 
+        state.mCacheMode = a.getInt(R.styleable.VectorDrawable_cacheMode, state.mCacheMode);
+
+        pathRenderer.mCacheStrokeOutlines = a.getBoolean(
+                R.styleable.VectorDrawable_cacheStrokeOutlines, pathRenderer.mCacheStrokeOutlines);
+
         pathRenderer.mViewportWidth = a.getFloat(
                 R.styleable.VectorDrawable_viewportWidth, pathRenderer.mViewportWidth);
         pathRenderer.mViewportHeight = a.getFloat(
@@ -595,10 +950,44 @@ public class VectorDrawable extends Drawable {
         final String name = a.getString(R.styleable.VectorDrawable_name);
         if (name != null) {
             pathRenderer.mRootName = name;
-            pathRenderer.mVGTargetsMap.put(name, pathRenderer);
         }
     }
 
+    /**
+     * Returns true if any attribute is a theme attribute, or refers to a file resource,
+     * such as a color state list, which may use theme attributes.
+     */
+    private static boolean dependsOnTheme(Resources res, AttributeSet attrs) {
+        TypedValue value = null;
+        for (int i = 0, n = attrs.getAttributeCount(); i < n; i++) {
+            final String s = attrs.getAttributeValue(i);
+            if (s == null || s.isEmpty()) {
+                continue;
+            }
+            if (s.charAt(0) == '?') {
+                return true;
+            }
+            if (s.charAt(0) == '@') {
+                final int id = attrs.getAttributeResourceValue(i, 0);
+                if (id == 0) {
+                    continue;
+                }
+                if (value == null) {
+                    value = new TypedValue();
+                }
+                try {
+                    res.getValue(id, value, true);
+                } catch (Resources.NotFoundException e) {
+                    return true;
+                }
+                if (value.type == TypedValue.TYPE_STRING) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private void inflateInternal(Context context, XmlPullParser parser, AttributeSet attrs)
             throws XmlPullParserException, IOException {
         final VectorDrawableState state = mVectorState;
@@ -618,31 +1007,27 @@ public class VectorDrawable extends Drawable {
 
                 if (SHAPE_PATH.equals(tagName)) {
                     final VFullPath path = new VFullPath();
+                    path.mRenderer = pathRenderer;
                     path.inflate(context, attrs);
                     currentGroup.mChildren.add(path);
-                    if (path.getPathName() != null) {
-                        pathRenderer.mVGTargetsMap.put(path.getPathName(), path);
-                    }
                     noPathTag = false;
+                    state.mThemeDependent |= dependsOnTheme(context.getResources(), attrs);
                     state.mChangingConfigurations |= path.mChangingConfigurations;
                 } else if (SHAPE_CLIP_PATH.equals(tagName)) {
                     final VClipPath path = new VClipPath();
+                    path.mRenderer = pathRenderer;
                     path.inflate(context, attrs);
                     currentGroup.mChildren.add(path);
-                    if (path.getPathName() != null) {
-                        pathRenderer.mVGTargetsMap.put(path.getPathName(), path);
-                    }
                     state.mChangingConfigurations |= path.mChangingConfigurations;
+                    state.mThemeDependent |= dependsOnTheme(context.getResources(), attrs);
                 } else if (SHAPE_GROUP.equals(tagName)) {
                     VGroup newChildGroup = new VGroup();
+                    newChildGroup.mRenderer = pathRenderer;
                     newChildGroup.inflate(context, attrs);
                     currentGroup.mChildren.add(newChildGroup);
                     groupStack.push(newChildGroup);
-                    if (newChildGroup.getGroupName() != null) {
-                        pathRenderer.mVGTargetsMap.put(newChildGroup.getGroupName(),
-                                newChildGroup);
-                    }
                     state.mChangingConfigurations |= newChildGroup.mChangingConfigurations;
+                    state.mThemeDependent |= dependsOnTheme(context.getResources(), attrs);
                 }
             } else if (eventType == XmlPullParser.END_TAG) {
                 final String tagName = parser.getName();
@@ -697,6 +1082,37 @@ public class VectorDrawable extends Drawable {
         mAllowCaching = allowCaching;
     }
 
+    /**
+     * Sets how the rasters are cached.
+     *
+     * @param cacheMode {@link #CACHE_MODE_BITMAP}, {@link #CACHE_MODE_TILED},
+     *                  {@link #CACHE_MODE_PICTURE} or {@link #CACHE_MODE_MIPMAP}
+     */
+    public void setCacheMode(int cacheMode) {
+        if (mVectorState.mCacheMode != cacheMode) {
+            mVectorState.mCacheMode = cacheMode;
+            invalidateSelf();
+        }
+    }
+
+    public int getCacheMode() {
+        return mVectorState.mCacheMode;
+    }
+
+    /**
+     * Sets whether the strokes are converted to fill outlines once and kept.
+     * Rasterizing a kept outline skips the stroker, it helps vectors with many
+     * static strokes which are rasterized often, like tiled or animated ones.
+     * It takes more memory. It is disabled by default.
+     */
+    public void setCacheStrokeOutlines(boolean cacheStrokeOutlines) {
+        mVectorState.mVPathRenderer.mCacheStrokeOutlines = cacheStrokeOutlines;
+    }
+
+    public boolean isCacheStrokeOutlines() {
+        return mVectorState.mVPathRenderer.mCacheStrokeOutlines;
+    }
+
     private boolean needMirroring() {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && isAutoMirrored() &&
                 getLayoutDirection() == LayoutDirection.RTL;
@@ -715,44 +1131,93 @@ public class VectorDrawable extends Drawable {
         return mVectorState.mAutoMirrored;
     }
 
+    /**
+     * Callback for {@link #prepareAsync(int, int, Executor, OnPreparedListener)}.
+     */
+    public interface OnPreparedListener {
+        /**
+         * Called on the main thread when the raster is ready.
+         */
+        void onPrepared(VectorDrawable drawable);
+    }
+
     private static class VectorDrawableState extends ConstantState {
         int mChangingConfigurations;
         VPathRenderer mVPathRenderer;
         ColorStateList mTint = null;
         Mode mTintMode = DEFAULT_TINT_MODE;
         boolean mAutoMirrored;
+        int mCacheMode = CACHE_MODE_BITMAP;
+
+        // The resource it is inflated from, 0 if unknown. The rasters of an
+        // untouched resource can be saved to the disk cache.
+        int mResId;
+        long mConfigurationKey;
+        // Whether it refers to theme attributes, the theme isn't in the disk key.
+        boolean mThemeDependent;
+        boolean mTargetsExposed;
+
+        // Whether all the paths are painted in the same color, only alpha differs.
+        // If so, the raster can be an alpha mask, painted with mMonochromeColor.
+        boolean mMonochrome;
+        int mMonochromeColor = Color.BLACK;
+
+        // The recorded picture and the tree version when it is recorded
+        Picture mPicture;
+        int mPictureVersion;
+
+        // The size of the mipmap master, the largest size drawn in CACHE_MODE_MIPMAP
+        int mMipmapWidth;
+        int mMipmapHeight;
 
-        Bitmap mCachedBitmap;
-        ColorStateList mCachedTint;
-        Mode mCachedTintMode;
-        int mCachedRootAlpha;
-        boolean mCachedAutoMirrored;
-        boolean mCacheDirty;
         /** Temporary paint object used to draw cached bitmaps. */
         Paint mTempPaint;
 
+        // Used to build mipmap levels, guarded by this state.
+        Paint mMipmapPaint;
+        final Rect mTmpMipmapRect = new Rect();
+
+        // Used to rasterize, guarded by this state.
+        private Canvas mTmpCanvas;
+
         // Deep copy for mutate() or implicitly mutate.
         public VectorDrawableState(VectorDrawableState copy) {
             if (copy != null) {
                 mChangingConfigurations = copy.mChangingConfigurations;
                 mVPathRenderer = new VPathRenderer(copy.mVPathRenderer);
-                if (copy.mVPathRenderer.mFillPaint != null) {
-                    mVPathRenderer.mFillPaint = new Paint(copy.mVPathRenderer.mFillPaint);
-                }
-                if (copy.mVPathRenderer.mStrokePaint != null) {
-                    mVPathRenderer.mStrokePaint = new Paint(copy.mVPathRenderer.mStrokePaint);
-                }
                 mTint = copy.mTint;
                 mTintMode = copy.mTintMode;
                 mAutoMirrored = copy.mAutoMirrored;
+                mCacheMode = copy.mCacheMode;
+                mMonochrome = copy.mMonochrome;
+                mMonochromeColor = copy.mMonochromeColor;
+            }
+        }
+
+        public void drawCachedBitmapWithRootAlpha(Canvas canvas, Bitmap cachedBitmap,
+                ColorFilter filter, Rect originalBounds) {
+            final Paint p;
+            if (cachedBitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+                p = getMaskPaint(filter);
+            } else if (cachedBitmap.getWidth() != originalBounds.width()
+                    || cachedBitmap.getHeight() != originalBounds.height()) {
+                // A mipmap level is scaled down to the bounds, filter it.
+                p = getFilterPaint(filter);
+            } else {
+                p = getPaint(filter);
             }
+            canvas.drawBitmap(cachedBitmap, null, originalBounds, p);
         }
 
-        public void drawCachedBitmapWithRootAlpha(Canvas canvas, ColorFilter filter,
-                Rect originalBounds) {
-            // The bitmap's size is the same as the bounds.
-            final Paint p = getPaint(filter);
-            canvas.drawBitmap(mCachedBitmap, null, originalBounds, p);
+        public void drawCachedBitmapWithRootAlpha(Canvas canvas, Bitmap cachedBitmap,
+                ColorFilter filter, RectF dst) {
+            final Paint p;
+            if (cachedBitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+                p = getMaskPaint(filter);
+            } else {
+                p = getPaint(filter);
+            }
+            canvas.drawBitmap(cachedBitmap, null, dst, p);
         }
 
         public boolean hasTranslucentRoot() {
@@ -776,48 +1241,299 @@ public class VectorDrawable extends Drawable {
             return mTempPaint;
         }
 
-        public void updateCachedBitmap(int width, int height) {
-            mCachedBitmap.eraseColor(Color.TRANSPARENT);
-            Canvas tmpCanvas = new Canvas(mCachedBitmap);
-            mVPathRenderer.draw(tmpCanvas, width, height, null);
+        /**
+         * The paint is always needed to filter a scaled bitmap.
+         */
+        public Paint getFilterPaint(ColorFilter filter) {
+            if (mTempPaint == null) {
+                mTempPaint = new Paint();
+                mTempPaint.setFilterBitmap(true);
+            }
+            mTempPaint.setAlpha(mVPathRenderer.getRootAlpha());
+            mTempPaint.setColorFilter(filter);
+            return mTempPaint;
         }
 
-        public void createCachedBitmapIfNeeded(int width, int height) {
-            if (mCachedBitmap == null || !canReuseBitmap(width, height)) {
-                mCachedBitmap = Bitmap.createBitmap(width, height,
-                        Bitmap.Config.ARGB_8888);
-                mCacheDirty = true;
+        /**
+         * An alpha mask takes its color from the paint, so the paint is
+         * always needed.
+         */
+        public Paint getMaskPaint(ColorFilter filter) {
+            if (mTempPaint == null) {
+                mTempPaint = new Paint();
+                mTempPaint.setFilterBitmap(true);
             }
+            mTempPaint.setColor(mMonochromeColor);
+            mTempPaint.setAlpha(mVPathRenderer.getRootAlpha());
+            mTempPaint.setColorFilter(filter);
+            return mTempPaint;
+        }
 
+        /**
+         * Finds out whether all the paths are painted in the same color.
+         * Named paths can be changed by animators, so they are not trusted.
+         */
+        public void updateMonochrome() {
+            // Transparent means no color is found yet.
+            mMonochromeColor = Color.TRANSPARENT;
+            mMonochrome = updateMonochrome(mVPathRenderer.mRootGroup);
+            if (mMonochromeColor == Color.TRANSPARENT) {
+                mMonochromeColor = Color.BLACK;
+            }
         }
 
-        public boolean canReuseBitmap(int width, int height) {
-            if (width == mCachedBitmap.getWidth()
-                    && height == mCachedBitmap.getHeight()) {
-                return true;
+        private boolean updateMonochrome(VGroup group) {
+            for (int i = 0; i < group.mChildren.size(); i++) {
+                final Object child = group.mChildren.get(i);
+                if (child instanceof VGroup) {
+                    if (!updateMonochrome((VGroup) child)) {
+                        return false;
+                    }
+                } else if (child instanceof VFullPath) {
+                    final VFullPath path = (VFullPath) child;
+                    if (path.getPathName() != null
+                            || !updateMonochrome(path.mFillColor)
+                            || !updateMonochrome(path.mStrokeColor)) {
+                        return false;
+                    }
+                }
             }
-            return false;
+            return true;
         }
 
-        public boolean canReuseCache() {
-            if (!mCacheDirty
-                    && mCachedTint == mTint
-                    && mCachedTintMode == mTintMode
-                    && mCachedAutoMirrored == mAutoMirrored
-                    && mCachedRootAlpha == mVPathRenderer.getRootAlpha()) {
+        private boolean updateMonochrome(int color) {
+            if (color == Color.TRANSPARENT) {
+                // Not painted
                 return true;
             }
-            return false;
+            color |= 0xFF000000;
+            if (mMonochromeColor == Color.TRANSPARENT) {
+                mMonochromeColor = color;
+                return true;
+            }
+            return color == mMonochromeColor;
+        }
+
+        /**
+         * Returns the cheapest bitmap config which doesn't lose anything.
+         *
+         * @param tinted true if the drawable is drawn with the tint filter
+         */
+        public Bitmap.Config getCacheConfig(boolean tinted) {
+            if (mMonochrome || (tinted && mTintMode == Mode.SRC_IN)) {
+                // The color channels are thrown out by the tint or all the same,
+                // only the alpha channel matters.
+                return Bitmap.Config.ALPHA_8;
+            } else {
+                return Bitmap.Config.ARGB_8888;
+            }
+        }
+
+        /**
+         * Makes sure the raster of the key is up to date, then returns it.
+         * The rasterization is guarded by this state, so it is safe to call
+         * it on any thread.
+         *
+         * @param force rasterize even if the raster is up to date
+         * @param useDiskCache read and write the disk cache, only off the UI thread
+         */
+        public synchronized VectorRasterCache.Entry prepareCacheEntry(
+                VectorRasterCache.Key key, Bitmap.Config config, boolean force,
+                boolean useDiskCache) {
+            final int left;
+            final int top;
+            final int width;
+            final int height;
+            if (key.mTileX < 0) {
+                left = 0;
+                top = 0;
+                width = key.mWidth;
+                height = key.mHeight;
+            } else {
+                left = key.mTileX * TILE_SIZE;
+                top = key.mTileY * TILE_SIZE;
+                width = Math.min(TILE_SIZE, key.mWidth - left);
+                height = Math.min(TILE_SIZE, key.mHeight - top);
+            }
+
+            final VectorRasterCache.Entry entry = obtainCacheEntry(key, width, height, config);
+            if (force) {
+                updateCachedBitmap(entry, key.mWidth, key.mHeight, left, top);
+            } else if (!canReuseCache(entry)) {
+                final VectorDiskCache diskCache = useDiskCache && canUseDiskCache()
+                        ? VectorRasterCache.getDiskCache() : null;
+                if (diskCache != null && diskCache.load(mResId,
+                        mVPathRenderer.mTargetDensity, mConfigurationKey, key, entry.mBitmap)) {
+                    entry.mVersion = mVPathRenderer.mTreeVersion;
+                } else {
+                    updateCachedBitmap(entry, key.mWidth, key.mHeight, left, top);
+                    if (diskCache != null) {
+                        diskCache.save(mResId, mVPathRenderer.mTargetDensity,
+                                mConfigurationKey, key, entry.mBitmap);
+                    }
+                }
+            }
+            return entry;
+        }
+
+        /**
+         * Returns the smallest mipmap level which is not smaller than width x height.
+         * The master is rasterized again if the size is larger than it, the levels are
+         * halved from the master or the level above on demand. If the size doesn't
+         * have the aspect ratio of the master, the exact size is rasterized instead,
+         * since scaling the level unevenly would blur it.
+         * It is safe to call it on any thread.
+         *
+         * @param key the key to use, its content is overwritten
+         */
+        public synchronized VectorRasterCache.Entry prepareMipmapEntry(
+                VectorRasterCache.Key key, Bitmap.Config config, int width, int height,
+                boolean useDiskCache) {
+            if (mMipmapWidth == 0 || mMipmapHeight == 0) {
+                mMipmapWidth = width;
+                mMipmapHeight = height;
+            }
+            if (Math.abs((long) height * mMipmapWidth - (long) mMipmapHeight * width)
+                    > Math.max(width, height)) {
+                // More than one pixel off
+                key.set(this, width, height);
+                return prepareCacheEntry(key, config, false, useDiskCache);
+            }
+            if (width > mMipmapWidth || height > mMipmapHeight) {
+                // Upscaling a level would blur it, the master grows. The levels
+                // of the old master are keyed by its size, the LRU drops them.
+                mMipmapWidth = Math.max(width, mMipmapWidth);
+                mMipmapHeight = Math.max(height, mMipmapHeight);
+            }
+
+            int level = 0;
+            int levelWidth = mMipmapWidth;
+            int levelHeight = mMipmapHeight;
+            while (levelWidth / 2 >= width && levelHeight / 2 >= height) {
+                levelWidth /= 2;
+                levelHeight /= 2;
+                level++;
+            }
+            return prepareMipmapLevel(key, config, level, useDiskCache);
+        }
+
+        private VectorRasterCache.Entry prepareMipmapLevel(VectorRasterCache.Key key,
+                Bitmap.Config config, int level, boolean useDiskCache) {
+            key.set(this, mMipmapWidth, mMipmapHeight);
+            if (level == 0) {
+                return prepareCacheEntry(key, config, false, useDiskCache);
+            }
+
+            key.setLevel(level);
+            VectorRasterCache.Entry entry = VectorRasterCache.get(key);
+            if (entry != null && canReuseCache(entry)
+                    && (entry.mBitmap.getConfig() != Bitmap.Config.ALPHA_8
+                    || config == Bitmap.Config.ALPHA_8)) {
+                return entry;
+            }
+
+            // Build it from the level above
+            final Bitmap upper = prepareMipmapLevel(key, config, level - 1, useDiskCache)
+                    .mBitmap;
+            key.set(this, mMipmapWidth, mMipmapHeight).setLevel(level);
+            entry = obtainCacheEntry(key, Math.max(1, upper.getWidth() / 2),
+                    Math.max(1, upper.getHeight() / 2), upper.getConfig());
+            final Bitmap bitmap = entry.mBitmap;
+            bitmap.eraseColor(Color.TRANSPARENT);
+            if (mMipmapPaint == null) {
+                mMipmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            }
+            // Halving with the bilinear filter averages each 2x2 block.
+            final Canvas canvas = obtainCanvas(bitmap);
+            mTmpMipmapRect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            canvas.drawBitmap(upper, null, mTmpMipmapRect, mMipmapPaint);
+            canvas.setBitmap(null);
+            entry.mVersion = mVPathRenderer.mTreeVersion;
+            return entry;
+        }
+
+        /**
+         * Records the tree in the viewport space if it is changed since the last
+         * recording. It is safe to call it on any thread.
+         */
+        public synchronized Picture preparePicture() {
+            final int treeVersion = mVPathRenderer.mTreeVersion;
+            if (mPicture == null || mPictureVersion != treeVersion) {
+                final Picture picture = new Picture();
+                final Canvas canvas = picture.beginRecording(
+                        (int) Math.ceil(mVPathRenderer.mViewportWidth),
+                        (int) Math.ceil(mVPathRenderer.mViewportHeight));
+                // The picture is replayed at any size, so the paths must be exact
+                mVPathRenderer.draw(canvas, 1.0f, 1.0f, null, false);
+                picture.endRecording();
+                mPicture = picture;
+                mPictureVersion = treeVersion;
+            }
+            return mPicture;
+        }
+
+        /**
+         * Only the rasters of a resource which is never mutated nor exposed to
+         * animators, and doesn't depend on the theme, are the same as the ones on the disk.
+         */
+        private boolean canUseDiskCache() {
+            return mResId != 0 && !mTargetsExposed && !mThemeDependent;
+        }
+
+        /**
+         * Rasterizes the drawable scaled to width x height, the pixel at (left, top)
+         * is at (0, 0) of the bitmap.
+         */
+        public void updateCachedBitmap(VectorRasterCache.Entry entry, int width, int height,
+                int left, int top) {
+            entry.mBitmap.eraseColor(Color.TRANSPARENT);
+            final Canvas tmpCanvas = obtainCanvas(entry.mBitmap);
+            final int saveCount = tmpCanvas.save();
+            tmpCanvas.translate(-left, -top);
+            mVPathRenderer.draw(tmpCanvas, width, height, null);
+            tmpCanvas.restoreToCount(saveCount);
+            // Don't hold the bitmap, it may be recycled by the pool.
+            tmpCanvas.setBitmap(null);
+            entry.mVersion = mVPathRenderer.mTreeVersion;
         }
 
-        public void updateCacheStates() {
-            // Use shallow copy here and shallow comparison in canReuseCache(),
-            // likely hit cache miss more, but practically not much difference.
-            mCachedTint = mTint;
-            mCachedTintMode = mTintMode;
-            mCachedRootAlpha = mVPathRenderer.getRootAlpha();
-            mCachedAutoMirrored = mAutoMirrored;
-            mCacheDirty = false;
+        /**
+         * Returns the canvas shared by all rasterizations of this state, drawing
+         * into the bitmap. It is guarded by this state.
+         */
+        private Canvas obtainCanvas(Bitmap bitmap) {
+            if (mTmpCanvas == null) {
+                mTmpCanvas = new Canvas(bitmap);
+            } else {
+                mTmpCanvas.setBitmap(bitmap);
+            }
+            return mTmpCanvas;
+        }
+
+        /**
+         * Returns the cached raster for the key, creates a new one if it
+         * doesn't exist or can't hold the colors. An ARGB_8888 raster is
+         * fine for any config. The key is only copied if a new raster is created.
+         */
+        public VectorRasterCache.Entry obtainCacheEntry(VectorRasterCache.Key key,
+                int width, int height, Bitmap.Config config) {
+            VectorRasterCache.Entry entry = VectorRasterCache.get(key);
+            if (entry == null || (entry.mBitmap.getConfig() == Bitmap.Config.ALPHA_8
+                    && config != Bitmap.Config.ALPHA_8)) {
+                entry = new VectorRasterCache.Entry(VectorRasterCache.obtainBitmap(
+                        width, height, config));
+                VectorRasterCache.put(key.copy(), entry);
+            }
+            return entry;
+        }
+
+        /**
+         * A raster only holds the tree. The tint, the root alpha and the color filter
+         * are applied when the raster is drawn, and mirroring is a canvas transform,
+         * so only changes of the tree make the raster stale.
+         */
+        public boolean canReuseCache(VectorRasterCache.Entry entry) {
+            return entry.mVersion == mVPathRenderer.mTreeVersion;
         }
 
         public VectorDrawableState() {
@@ -859,10 +1575,14 @@ public class VectorDrawable extends Drawable {
         private final Path mPath;
         private final Path mRenderPath;
         private final Matrix mFinalPathMatrix = new Matrix();
+        private final float[] mTmpUnitVectors = new float[4];
+        private final RectF mTmpClipRect = new RectF();
+        private PathSimplifier mPathSimplifier;
+        private PathDataScanner mPathDataScanner;
 
         private Paint mStrokePaint;
         private Paint mFillPaint;
-        private PathMeasure mPathMeasure;
+        private Paint mOutlinePaint;
 
         /////////////////////////////////////////////////////
         // Variables below need to be copied (deep copy if applicable) for mutation.
@@ -878,14 +1598,54 @@ public class VectorDrawable extends Drawable {
 
         int mTargetDensity = DisplayMetrics.DENSITY_DEFAULT;
 
-        final ArrayMap<String, Object> mVGTargetsMap = new ArrayMap<>();
+        // Whether strokes are converted to fill outlines and kept, see
+        // VFullPath.getStrokeOutline().
+        boolean mCacheStrokeOutlines;
+
+        // Bumped whenever a group or a path in the tree is changed.
+        int mTreeVersion;
+
+        // The last version given to a stacked matrix of a group. Only used in draw().
+        private int mMatrixVersion;
+
+        // The tree flattened into a list of ops, compiled on the first draw. The
+        // structure of the tree is only built by inflation, which always creates
+        // a new renderer, so it is compiled only once.
+        private static final int OP_SAVE = 0;
+        private static final int OP_RESTORE = 1;
+        private static final int OP_MATRIX = 2;
+        private static final int OP_CLIP = 3;
+        private static final int OP_PATH = 4;
+
+        // Paths drawn at half of the intrinsic size or smaller are simplified to
+        // polylines, one level for each power of two of the scale, see getLodLevel().
+        // The levels of the last few scales are kept for each path.
+        static final int LOD_CACHE_SIZE = 3;
+        // The max error of a simplified path in pixels
+        static final float LOD_TOLERANCE = 0.25f;
+        static final int NO_LOD = Integer.MIN_VALUE;
+        private int[] mOps;
+        // The group or the path of the op
+        private Object[] mOpTargets;
+        // The parent group for OP_MATRIX, the owner group for OP_CLIP and OP_PATH
+        private VGroup[] mOpGroups;
+        private int mOpCount;
+        private boolean mDisplayListDirty = true;
+
+        // Built by getTarget() lazily
+        private ArrayMap<String, Object> mVGTargetsMap;
 
         public VPathRenderer() {
             mRootGroup = new VGroup();
+            mRootGroup.mRenderer = this;
             mPath = new Path();
             mRenderPath = new Path();
         }
 
+        public void invalidateTree() {
+            mTreeVersion++;
+        }
+
         public void setRootAlpha(int alpha) {
             mRootAlpha = alpha;
         }
@@ -906,9 +1666,10 @@ public class VectorDrawable extends Drawable {
         }
 
         public VPathRenderer(VPathRenderer copy) {
-            mRootGroup = new VGroup(copy.mRootGroup, mVGTargetsMap);
-            mPath = new Path(copy.mPath);
-            mRenderPath = new Path(copy.mRenderPath);
+            mRootGroup = new VGroup(copy.mRootGroup, this);
+            // Scratch paths, nothing to copy
+            mPath = new Path();
+            mRenderPath = new Path();
             mBaseWidth = copy.mBaseWidth;
             mBaseHeight = copy.mBaseHeight;
             mViewportWidth = copy.mViewportWidth;
@@ -918,129 +1679,412 @@ public class VectorDrawable extends Drawable {
             mRootAlpha = copy.mRootAlpha;
             mRootName = copy.mRootName;
             mTargetDensity = copy.mTargetDensity;
-            if (copy.mRootName != null) {
-                mVGTargetsMap.put(copy.mRootName, this);
+            mCacheStrokeOutlines = copy.mCacheStrokeOutlines;
+        }
+
+        /**
+         * Finds the group or the path by name. The map is built on the first call,
+         * most drawables are never animated.
+         */
+        public Object getTarget(String name) {
+            if (mVGTargetsMap == null) {
+                mVGTargetsMap = new ArrayMap<>();
+                if (mRootName != null) {
+                    mVGTargetsMap.put(mRootName, this);
+                }
+                putTargets(mRootGroup);
             }
+            return mVGTargetsMap.get(name);
         }
 
-        private void drawGroupTree(VGroup currentGroup, Matrix currentMatrix,
-                Canvas canvas, int w, int h, ColorFilter filter) {
-            // Calculate current group's matrix by preConcat the parent's and
-            // and the current one on the top of the stack.
-            // Basically the Mfinal = Mviewport * M0 * M1 * M2;
-            // Mi the local matrix at level i of the group tree.
-            currentGroup.mStackedMatrix.set(currentMatrix);
-            currentGroup.mStackedMatrix.preConcat(currentGroup.mLocalMatrix);
+        // In the same order as the XML file, the later one wins.
+        private void putTargets(VGroup group) {
+            if (group.mGroupName != null) {
+                mVGTargetsMap.put(group.mGroupName, group);
+            }
+            final ArrayList<Object> children = group.mChildren;
+            for (int i = 0; i < children.size(); i++) {
+                final Object child = children.get(i);
+                if (child instanceof VGroup) {
+                    putTargets((VGroup) child);
+                } else {
+                    final VPath path = (VPath) child;
+                    if (path.mPathName != null) {
+                        mVGTargetsMap.put(path.mPathName, path);
+                    }
+                }
+            }
+        }
 
-            // Save the current clip information, which is local to this group.
-            canvas.save();
-            // Draw the group tree in the same order as the XML file.
-            for (int i = 0; i < currentGroup.mChildren.size(); i++) {
-                Object child = currentGroup.mChildren.get(i);
+        /**
+         * Flattens the tree into the op list in pre-order, the same order as the XML file.
+         * Only the groups with clip paths save and restore the canvas, since the clip
+         * is local to the group.
+         */
+        private void compileDisplayList() {
+            mOpCount = 0;
+            compileGroup(mRootGroup, null);
+            mDisplayListDirty = false;
+        }
+
+        private void compileGroup(VGroup group, VGroup parent) {
+            addOp(OP_MATRIX, group, parent);
+
+            final ArrayList<Object> children = group.mChildren;
+            boolean hasClip = false;
+            for (int i = 0; i < children.size(); i++) {
+                final Object child = children.get(i);
+                if (child instanceof VPath && ((VPath) child).isClipPath()) {
+                    hasClip = true;
+                    break;
+                }
+            }
+
+            if (hasClip && canFoldClips(children)) {
+                foldClips(group, children);
+                return;
+            }
+
+            if (hasClip) {
+                addOp(OP_SAVE, null, null);
+            }
+            for (int i = 0; i < children.size(); i++) {
+                final Object child = children.get(i);
                 if (child instanceof VGroup) {
-                    VGroup childGroup = (VGroup) child;
-                    drawGroupTree(childGroup, currentGroup.mStackedMatrix,
-                            canvas, w, h, filter);
+                    compileGroup((VGroup) child, group);
                 } else if (child instanceof VPath) {
-                    VPath childPath = (VPath) child;
-                    drawPath(currentGroup, childPath, canvas, w, h, filter);
+                    final VPath path = (VPath) child;
+                    addOp(path.isClipPath() ? OP_CLIP : OP_PATH, path, group);
+                }
+            }
+            if (hasClip) {
+                addOp(OP_RESTORE, null, null);
+            }
+        }
+
+        /**
+         * The clips of a group can be folded into the paths after them if nothing
+         * can change them: the clips and the paths have no name, so animators
+         * can't reach them, and the paths are not stroked nor trimmed, since
+         * a clipped stroke is not the stroke of the clipped path. The clips and
+         * the paths share the stacked matrix of the group, so it can change.
+         */
+        private static boolean canFoldClips(ArrayList<Object> children) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+                // No Path.op()
+                return false;
+            }
+            boolean seenClip = false;
+            for (int i = 0; i < children.size(); i++) {
+                final Object child = children.get(i);
+                if (child instanceof VClipPath) {
+                    if (((VClipPath) child).getPathName() != null) {
+                        return false;
+                    }
+                    seenClip = true;
+                } else if (seenClip) {
+                    if (!(child instanceof VFullPath)) {
+                        // A group after the clip has its own matrix
+                        return false;
+                    }
+                    final VFullPath path = (VFullPath) child;
+                    if (path.getPathName() != null
+                            || path.mStrokeColor != Color.TRANSPARENT
+                            || path.mTrimPathStart != 0.0f || path.mTrimPathEnd != 1.0f) {
+                        return false;
+                    }
                 }
             }
-            canvas.restore();
+            return true;
+        }
+
+        /**
+         * Intersects each path with the clips before it once, then the group needs
+         * no clip, save nor restore when it is drawn.
+         */
+        @TargetApi(Build.VERSION_CODES.KITKAT)
+        private void foldClips(VGroup group, ArrayList<Object> children) {
+            Path clip = null;
+            for (int i = 0; i < children.size(); i++) {
+                final Object child = children.get(i);
+                if (child instanceof VGroup) {
+                    compileGroup((VGroup) child, group);
+                } else if (child instanceof VClipPath) {
+                    final Path clipPath = ((VClipPath) child).getPath();
+                    if (clip == null) {
+                        clip = new Path(clipPath);
+                    } else {
+                        clip.op(clipPath, Path.Op.INTERSECT);
+                    }
+                } else if (child instanceof VFullPath) {
+                    final VFullPath path = (VFullPath) child;
+                    if (clip != null) {
+                        final Path clippedPath = new Path();
+                        clippedPath.op(path.getUnclippedPath(), clip, Path.Op.INTERSECT);
+                        path.setClippedPath(clippedPath);
+                    }
+                    addOp(OP_PATH, path, group);
+                }
+            }
+        }
+
+        private void addOp(int op, Object target, VGroup group) {
+            if (mOps == null) {
+                mOps = new int[16];
+                mOpTargets = new Object[16];
+                mOpGroups = new VGroup[16];
+            } else if (mOpCount == mOps.length) {
+                final int capacity = mOpCount * 2;
+                mOps = Arrays.copyOf(mOps, capacity);
+                mOpTargets = Arrays.copyOf(mOpTargets, capacity);
+                mOpGroups = Arrays.copyOf(mOpGroups, capacity);
+            }
+            mOps[mOpCount] = op;
+            mOpTargets[mOpCount] = target;
+            mOpGroups[mOpCount] = group;
+            mOpCount++;
+        }
+
+        /**
+         * Calculates the group's matrix by preConcat the parent's and the local one.
+         * Basically the Mfinal = Mviewport * M0 * M1 * M2;
+         * Mi the local matrix at level i of the group tree.
+         * It is only calculated again if the parent's or the local one is changed.
+         */
+        private void updateStackedMatrix(VGroup group, VGroup parent) {
+            final Matrix parentMatrix;
+            final int parentMatrixVersion;
+            if (parent == null) {
+                parentMatrix = IDENTITY_MATRIX;
+                parentMatrixVersion = 0;
+            } else {
+                parentMatrix = parent.mStackedMatrix;
+                parentMatrixVersion = parent.mStackedMatrixVersion;
+            }
+
+            if (group.mLocalMatrixDirty || group.mParentMatrixVersion != parentMatrixVersion) {
+                group.mStackedMatrix.set(parentMatrix);
+                group.mStackedMatrix.preConcat(group.mLocalMatrix);
+                group.mMatrixScale = getMatrixScale(group.mStackedMatrix);
+                group.mStackedMatrixVersion = ++mMatrixVersion;
+                group.mParentMatrixVersion = parentMatrixVersion;
+                group.mLocalMatrixDirty = false;
+            }
         }
 
         public void draw(Canvas canvas, int w, int h, ColorFilter filter) {
-            // Travese the tree in pre-order to draw.
-            drawGroupTree(mRootGroup, IDENTITY_MATRIX, canvas, w, h, filter);
+            draw(canvas, w / mViewportWidth, h / mViewportHeight, filter, true);
         }
 
-        private void drawPath(VGroup vGroup, VPath vPath, Canvas canvas, int w, int h,
-                ColorFilter filter) {
-            final float scaleX = w / mViewportWidth;
-            final float scaleY = h / mViewportHeight;
-            final float minScale = Math.min(scaleX, scaleY);
-            final Matrix groupStackedMatrix = vGroup.mStackedMatrix;
+        /**
+         * Draws the tree, the viewport is scaled by scaleX and scaleY.
+         *
+         * @param allowLod whether the paths can be simplified for the scale, only
+         *                 if the scale is the real pixel scale
+         */
+        public void draw(Canvas canvas, float scaleX, float scaleY, ColorFilter filter,
+                boolean allowLod) {
+            if (mDisplayListDirty) {
+                compileDisplayList();
+            }
 
-            mFinalPathMatrix.set(groupStackedMatrix);
-            mFinalPathMatrix.postScale(scaleX, scaleY);
+            final int[] ops = mOps;
+            final Object[] targets = mOpTargets;
+            final VGroup[] groups = mOpGroups;
+            for (int i = 0, n = mOpCount; i < n; i++) {
+                switch (ops[i]) {
+                    case OP_SAVE:
+                        canvas.save();
+                        break;
+                    case OP_RESTORE:
+                        canvas.restore();
+                        break;
+                    case OP_MATRIX:
+                        updateStackedMatrix((VGroup) targets[i], groups[i]);
+                        break;
+                    case OP_CLIP:
+                        clipPath(groups[i], (VPath) targets[i], canvas, scaleX, scaleY);
+                        break;
+                    case OP_PATH:
+                        drawPath(groups[i], (VFullPath) targets[i], canvas, scaleX, scaleY,
+                                filter, allowLod);
+                        break;
+                }
+            }
+        }
 
-            final float matrixScale = getMatrixScale(groupStackedMatrix);
-            if (matrixScale == 0) {
+        private void clipPath(VGroup vGroup, VPath vPath, Canvas canvas, float scaleX,
+                float scaleY) {
+            if (vGroup.mMatrixScale == 0) {
                 // When either x or y is scaled to 0, we don't need to draw anything.
                 return;
             }
-            vPath.toPath(mPath);
-            final Path path = mPath;
 
-            mRenderPath.reset();
+            final RectF rect = ((VClipPath) vPath).getRect();
+            if (rect != null && vGroup.mStackedMatrix.rectStaysRect()) {
+                // clipRect() is much cheaper than clipPath()
+                mFinalPathMatrix.set(vGroup.mStackedMatrix);
+                mFinalPathMatrix.postScale(scaleX, scaleY);
+                mFinalPathMatrix.mapRect(mTmpClipRect, rect);
+                canvas.clipRect(mTmpClipRect);
+            } else {
+                canvas.clipPath(vPath.getRenderPath(vGroup, scaleX, scaleY, mFinalPathMatrix,
+                        null));
+            }
+        }
+
+        private void drawPath(VGroup vGroup, VFullPath fullPath, Canvas canvas, float scaleX,
+                float scaleY, ColorFilter filter, boolean allowLod) {
+            final float minScale = Math.min(scaleX, scaleY);
+
+            final float matrixScale = vGroup.mMatrixScale;
+            if (matrixScale == 0) {
+                // When either x or y is scaled to 0, we don't need to draw anything.
+                return;
+            }
 
-            if (vPath.isClipPath()) {
+            final Path renderPath;
+            final boolean trimmed =
+                    fullPath.mTrimPathStart != 0.0f || fullPath.mTrimPathEnd != 1.0f;
+            if (trimmed) {
+                // Trimmed paths are usually animated, don't cache them.
+                mFinalPathMatrix.set(vGroup.mStackedMatrix);
+                mFinalPathMatrix.postScale(scaleX, scaleY);
+
+                float start = (fullPath.mTrimPathStart + fullPath.mTrimPathOffset) % 1.0f;
+                float end = (fullPath.mTrimPathEnd + fullPath.mTrimPathOffset) % 1.0f;
+
+                // The measure is kept until the nodes are changed, the segments
+                // are found by binary search over its cumulative lengths.
+                final PathMeasure pathMeasure = fullPath.getPathMeasure();
+
+                // The path of fullPath is cached, trim it to mPath.
+                final Path path = mPath;
+                float len = fullPath.mPathLength;
+                start = start * len;
+                end = end * len;
+                path.reset();
+                if (start > end) {
+                    pathMeasure.getSegment(start, len, path, true);
+                    pathMeasure.getSegment(0f, end, path, true);
+                } else {
+                    pathMeasure.getSegment(start, end, path, true);
+                }
+                path.rLineTo(0, 0); // fix bug in measure
+                mRenderPath.reset();
                 mRenderPath.addPath(path, mFinalPathMatrix);
-                canvas.clipPath(mRenderPath);
+                renderPath = mRenderPath;
             } else {
-                VFullPath fullPath = (VFullPath) vPath;
-                if (fullPath.mTrimPathStart != 0.0f || fullPath.mTrimPathEnd != 1.0f) {
-                    float start = (fullPath.mTrimPathStart + fullPath.mTrimPathOffset) % 1.0f;
-                    float end = (fullPath.mTrimPathEnd + fullPath.mTrimPathOffset) % 1.0f;
+                // A stroke makes even a zero length contour visible, like a dot with
+                // round caps, and the simplifier drops them. Only fills are simplified.
+                final boolean stroked = fullPath.mStrokeColor != Color.TRANSPARENT
+                        && fullPath.mStrokeWidth > 0;
+                final int lodLevel = allowLod && !stroked
+                        ? getLodLevel(minScale * matrixScale) : NO_LOD;
+                final Path lodPath = lodLevel == NO_LOD
+                        ? null : fullPath.getLodPath(lodLevel, this);
+                renderPath = fullPath.getRenderPath(vGroup, scaleX, scaleY, mFinalPathMatrix,
+                        lodPath);
+            }
 
-                    if (mPathMeasure == null) {
-                        mPathMeasure = new PathMeasure();
-                    }
-                    mPathMeasure.setPath(mPath, false);
-
-                    float len = mPathMeasure.getLength();
-                    start = start * len;
-                    end = end * len;
-                    path.reset();
-                    if (start > end) {
-                        mPathMeasure.getSegment(start, len, path, true);
-                        mPathMeasure.getSegment(0f, end, path, true);
-                    } else {
-                        mPathMeasure.getSegment(start, end, path, true);
-                    }
-                    path.rLineTo(0, 0); // fix bug in measure
+            if (fullPath.mFillColor != Color.TRANSPARENT) {
+                if (mFillPaint == null) {
+                    mFillPaint = new Paint();
+                    mFillPaint.setStyle(Paint.Style.FILL);
+                    mFillPaint.setAntiAlias(true);
                 }
-                mRenderPath.addPath(path, mFinalPathMatrix);
 
-                if (fullPath.mFillColor != Color.TRANSPARENT) {
-                    if (mFillPaint == null) {
-                        mFillPaint = new Paint();
-                        mFillPaint.setStyle(Paint.Style.FILL);
-                        mFillPaint.setAntiAlias(true);
-                    }
+                final Paint fillPaint = mFillPaint;
+                fillPaint.setColor(applyAlpha(fullPath.mFillColor, fullPath.mFillAlpha));
+                fillPaint.setColorFilter(filter);
+                canvas.drawPath(renderPath, fillPaint);
+            }
 
-                    final Paint fillPaint = mFillPaint;
-                    fillPaint.setColor(applyAlpha(fullPath.mFillColor, fullPath.mFillAlpha));
-                    fillPaint.setColorFilter(filter);
-                    canvas.drawPath(mRenderPath, fillPaint);
+            if (fullPath.mStrokeColor != Color.TRANSPARENT) {
+                if (mStrokePaint == null) {
+                    mStrokePaint = new Paint();
+                    mStrokePaint.setStyle(Paint.Style.STROKE);
+                    mStrokePaint.setAntiAlias(true);
                 }
 
-                if (fullPath.mStrokeColor != Color.TRANSPARENT) {
-                    if (mStrokePaint == null) {
-                        mStrokePaint = new Paint();
-                        mStrokePaint.setStyle(Paint.Style.STROKE);
-                        mStrokePaint.setAntiAlias(true);
-                    }
+                final Paint strokePaint = mStrokePaint;
+                if (fullPath.mStrokeLineJoin != null) {
+                    strokePaint.setStrokeJoin(fullPath.mStrokeLineJoin);
+                }
 
-                    final Paint strokePaint = mStrokePaint;
-                    if (fullPath.mStrokeLineJoin != null) {
-                        strokePaint.setStrokeJoin(fullPath.mStrokeLineJoin);
-                    }
+                if (fullPath.mStrokeLineCap != null) {
+                    strokePaint.setStrokeCap(fullPath.mStrokeLineCap);
+                }
 
-                    if (fullPath.mStrokeLineCap != null) {
-                        strokePaint.setStrokeCap(fullPath.mStrokeLineCap);
+                strokePaint.setStrokeMiter(fullPath.mStrokeMiterlimit);
+                strokePaint.setColor(applyAlpha(fullPath.mStrokeColor, fullPath.mStrokeAlpha));
+                strokePaint.setColorFilter(filter);
+                final float finalStrokeScale = minScale * matrixScale;
+                strokePaint.setStrokeWidth(fullPath.mStrokeWidth * finalStrokeScale);
+                if (mCacheStrokeOutlines && !trimmed && strokePaint.getStrokeWidth() > 0) {
+                    // Fill the outline instead of running the stroker again
+                    if (mOutlinePaint == null) {
+                        mOutlinePaint = new Paint();
+                        mOutlinePaint.setStyle(Paint.Style.FILL);
+                        mOutlinePaint.setAntiAlias(true);
                     }
-
-                    strokePaint.setStrokeMiter(fullPath.mStrokeMiterlimit);
-                    strokePaint.setColor(applyAlpha(fullPath.mStrokeColor, fullPath.mStrokeAlpha));
-                    strokePaint.setColorFilter(filter);
-                    final float finalStrokeScale = minScale * matrixScale;
-                    strokePaint.setStrokeWidth(fullPath.mStrokeWidth * finalStrokeScale);
-                    canvas.drawPath(mRenderPath, strokePaint);
+                    final Paint outlinePaint = mOutlinePaint;
+                    outlinePaint.setColor(strokePaint.getColor());
+                    outlinePaint.setColorFilter(filter);
+                    canvas.drawPath(fullPath.getStrokeOutline(strokePaint), outlinePaint);
+                } else {
+                    canvas.drawPath(renderPath, strokePaint);
                 }
             }
         }
 
+        /**
+         * Picks the level of detail for a path drawn at the scale, in pixels per
+         * viewport unit. The level is the binary exponent of the scale, so all the
+         * scales in [2^level, 2^(level+1)) share it. Only the paths drawn at half
+         * of the intrinsic size or smaller are simplified, NO_LOD means the exact path.
+         */
+        private int getLodLevel(float scale) {
+            final float intrinsicScale = getIntrinsicScale();
+            if (intrinsicScale <= 0 || !(scale > 0) || scale > intrinsicScale / 2) {
+                return NO_LOD;
+            }
+            return Math.getExponent(scale);
+        }
+
+        /**
+         * Returns the tolerance of the level in viewport units. It is
+         * LOD_TOLERANCE device pixels at the largest scale of the level.
+         */
+        static float getLodTolerance(int level) {
+            return LOD_TOLERANCE / Math.scalb(1.0f, level + 1);
+        }
+
+        /**
+         * The pixels per viewport unit at the intrinsic size, the inverse of
+         * {@link VectorDrawable#getPixelSize()}.
+         */
+        private float getIntrinsicScale() {
+            if (mViewportWidth <= 0 || mViewportHeight <= 0) {
+                return 0;
+            }
+            return Math.min(mBaseWidth / mViewportWidth, mBaseHeight / mViewportHeight);
+        }
+
+        PathSimplifier getPathSimplifier() {
+            if (mPathSimplifier == null) {
+                mPathSimplifier = new PathSimplifier();
+            }
+            return mPathSimplifier;
+        }
+
+        PathDataScanner getPathDataScanner() {
+            if (mPathDataScanner == null) {
+                mPathDataScanner = new PathDataScanner();
+            }
+            return mPathDataScanner;
+        }
+
         private float getMatrixScale(Matrix groupStackedMatrix) {
             // Given unit vectors A = (0, 1) and B = (1, 0).
             // After matrix mapping, we got A' and B'. Let theta = the angel b/t A' and B'.
@@ -1052,7 +2096,11 @@ public class VectorDrawable extends Drawable {
             // scale on x and y axis, and take the minimal of these two.
             // For skew case, an unit square will mapped to a parallelogram. And this function will
             // return the minimal height of the 2 bases.
-            float[] unitVectors = new float[] {0, 1, 1, 0};
+            final float[] unitVectors = mTmpUnitVectors;
+            unitVectors[0] = 0;
+            unitVectors[1] = 1;
+            unitVectors[2] = 1;
+            unitVectors[3] = 0;
             groupStackedMatrix.mapVectors(unitVectors);
             float scaleX = MathUtils.mag(unitVectors[0], unitVectors[1]);
             float scaleY = MathUtils.mag(unitVectors[2], unitVectors[3]);
@@ -1075,6 +2123,14 @@ public class VectorDrawable extends Drawable {
         // mStackedMatrix is only used temporarily when drawing, it combines all
         // the parents' local matrices with the current one.
         private final Matrix mStackedMatrix = new Matrix();
+        // The scale of mStackedMatrix, see VPathRenderer.getMatrixScale().
+        float mMatrixScale;
+        // The version of mStackedMatrix, and the version of the parent's stacked matrix
+        // it is calculated from. The children compare it to know whether their cached
+        // matrices or render paths are stale.
+        int mStackedMatrixVersion;
+        int mParentMatrixVersion = -1;
+        boolean mLocalMatrixDirty = true;
 
         /////////////////////////////////////////////////////
         // Variables below need to be copied (deep copy if applicable) for mutation.
@@ -1094,7 +2150,11 @@ public class VectorDrawable extends Drawable {
         private int mChangingConfigurations;
         private String mGroupName = null;
 
-        public VGroup(VGroup copy, ArrayMap<String, Object> targetsMap) {
+        // The renderer which owns the tree, notified when this group is changed.
+        VPathRenderer mRenderer;
+
+        public VGroup(VGroup copy, VPathRenderer renderer) {
+            mRenderer = renderer;
             mRotate = copy.mRotate;
             mPivotX = copy.mPivotX;
             mPivotY = copy.mPivotY;
@@ -1104,9 +2164,6 @@ public class VectorDrawable extends Drawable {
             mTranslateY = copy.mTranslateY;
             mGroupName = copy.mGroupName;
             mChangingConfigurations = copy.mChangingConfigurations;
-            if (mGroupName != null) {
-                targetsMap.put(mGroupName, this);
-            }
 
             mLocalMatrix.set(copy.mLocalMatrix);
 
@@ -1115,7 +2172,7 @@ public class VectorDrawable extends Drawable {
                 Object copyChild = children.get(i);
                 if (copyChild instanceof VGroup) {
                     VGroup copyGroup = (VGroup) copyChild;
-                    mChildren.add(new VGroup(copyGroup, targetsMap));
+                    mChildren.add(new VGroup(copyGroup, renderer));
                 } else {
                     VPath newPath;
                     if (copyChild instanceof VFullPath) {
@@ -1125,10 +2182,8 @@ public class VectorDrawable extends Drawable {
                     } else {
                         throw new IllegalStateException("Unknown object in the tree!");
                     }
+                    newPath.mRenderer = renderer;
                     mChildren.add(newPath);
-                    if (newPath.mPathName != null) {
-                        targetsMap.put(newPath.mPathName, newPath);
-                    }
                 }
             }
         }
@@ -1171,6 +2226,18 @@ public class VectorDrawable extends Drawable {
             updateLocalMatrix();
         }
 
+        public void load(ByteBuffer data) throws IOException {
+            mGroupName = CompiledVector.readString(data);
+            mRotate = data.getFloat();
+            mPivotX = data.getFloat();
+            mPivotY = data.getFloat();
+            mScaleX = data.getFloat();
+            mScaleY = data.getFloat();
+            mTranslateX = data.getFloat();
+            mTranslateY = data.getFloat();
+            updateLocalMatrix();
+        }
+
         private void updateLocalMatrix() {
             // The order we apply is the same as the
             // RenderNode.cpp::applyViewPropertyTransforms().
@@ -1179,6 +2246,10 @@ public class VectorDrawable extends Drawable {
             mLocalMatrix.postScale(mScaleX, mScaleY);
             mLocalMatrix.postRotate(mRotate, 0, 0);
             mLocalMatrix.postTranslate(mTranslateX + mPivotX, mTranslateY + mPivotY);
+            mLocalMatrixDirty = true;
+            if (mRenderer != null) {
+                mRenderer.invalidateTree();
+            }
         }
 
         /* Setters and Getters, used by animator from AnimatedVectorDrawable. */
@@ -1279,9 +2350,44 @@ public class VectorDrawable extends Drawable {
      */
     private static class VPath {
         protected PathParser.PathDataNode[] mNodes = null;
+        // The verbs and coordinates of the path data, see PathDataScanner.
+        // The nodes are built from them only when the animators ask for them.
+        // They are never changed, so they are shared by copies.
+        byte[] mVerbs;
+        float[] mCoords;
+        // The path data from the XML, it isn't parsed until the path is built or
+        // the nodes are asked for, so the vectors which are never drawn skip it.
+        private String mPathData;
+        // The nodes replaced by setPathData(). An animator which alternates between
+        // two shapes that can't be morphed swaps them with mNodes instead of copying.
+        // Only two shapes are covered, a third one is copied again on every switch.
+        private PathParser.PathDataNode[] mSpareNodes;
         String mPathName;
         int mChangingConfigurations;
 
+        // The renderer which owns the tree, notified when this path is changed.
+        VPathRenderer mRenderer;
+
+        // Built from mNodes lazily, so static paths are not converted on every draw.
+        private Path mPath;
+        boolean mPathDirty = true;
+        // Whether mNodes or mPath are shared with a copy, they can't be changed
+        // in place then.
+        private boolean mNodesShared;
+        private boolean mPathShared;
+        // Bumped whenever mPath is rebuilt.
+        int mPathVersion;
+
+        // mPath transformed by the stacked matrix of the group and the scale of the
+        // viewport, with the matrix version and the scale it is transformed with.
+        Path mRenderPath;
+        private Path mRenderSourcePath;
+        private int mRenderMatrixVersion = -1;
+        // Bumped whenever mRenderPath is transformed again.
+        int mRenderPathVersion;
+        private float mRenderScaleX;
+        private float mRenderScaleY;
+
         public VPath() {
             // Empty constructor.
         }
@@ -1289,20 +2395,145 @@ public class VectorDrawable extends Drawable {
         public VPath(VPath copy) {
             mPathName = copy.mPathName;
             mChangingConfigurations = copy.mChangingConfigurations;
-            mNodes = PathParser.deepCopyNodes(copy.mNodes);
+            // Share the nodes and the built path until one of them is changed
+            mNodes = copy.mNodes;
+            mVerbs = copy.mVerbs;
+            mCoords = copy.mCoords;
+            mPathData = copy.mPathData;
+            mNodesShared = true;
+            copy.mNodesShared = true;
+            if (copy.mPath != null && !copy.mPathDirty) {
+                mPath = copy.mPath;
+                mPathDirty = false;
+                mPathShared = true;
+                copy.mPathShared = true;
+            }
         }
 
         public void toPath(Path path) {
             path.reset();
+            parsePathData();
             if (mNodes != null) {
                 PathParser.PathDataNode.nodesToPath(mNodes, path);
+            } else if (mVerbs != null) {
+                PackedPath.toPath(mVerbs, mCoords, path);
             }
         }
 
+        /**
+         * Keeps the path data, it is parsed on first use.
+         */
+        void setPathDataString(String pathData) {
+            mPathData = pathData;
+            mNodes = null;
+            mVerbs = null;
+            mCoords = null;
+            mPathDirty = true;
+        }
+
+        /**
+         * Scans the kept path data into verbs and coordinates, if it isn't yet.
+         * The nodes are built from them only when the animators ask for them.
+         */
+        private void parsePathData() {
+            final String pathData = mPathData;
+            if (pathData == null) {
+                return;
+            }
+            mPathData = null;
+
+            final PathDataScanner scanner = mRenderer != null
+                    ? mRenderer.getPathDataScanner() : new PathDataScanner();
+            try {
+                scanner.scan(pathData);
+                mVerbs = scanner.getVerbs();
+                mCoords = scanner.getCoords();
+                mNodes = null;
+            } catch (IllegalArgumentException e) {
+                // Leave what the scanner rejects to PathParser, like before
+                mNodes = PathParser.createNodesFromPathData(pathData);
+                mVerbs = null;
+                mCoords = null;
+            }
+        }
+
+        /**
+         * Returns the number of verbs of the path, or -1 if it is set by nodes.
+         */
+        int getVerbCount() {
+            parsePathData();
+            return mNodes == null && mVerbs != null ? mVerbs.length : -1;
+        }
+
+        void loadPathData(ByteBuffer data) throws IOException {
+            mVerbs = CompiledVector.readVerbs(data);
+            mCoords = CompiledVector.readCoords(data, mVerbs);
+            mPathDirty = true;
+        }
+
+        /**
+         * Returns the path built from the nodes. It is rebuilt only if the nodes
+         * are changed. Don't modify it.
+         */
+        public Path getPath() {
+            if (mPath == null) {
+                mPath = new Path();
+                mPathDirty = true;
+            }
+            if (mPathDirty) {
+                if (mPathShared) {
+                    mPath = new Path();
+                    mPathShared = false;
+                }
+                toPath(mPath);
+                mPathDirty = false;
+                mPathVersion++;
+                mRenderMatrixVersion = -1;
+            }
+            return mPath;
+        }
+
+        /**
+         * Returns the path transformed by the stacked matrix of the group, then scaled.
+         * It is transformed again only if the nodes, the matrix or the scale is changed.
+         * Don't modify it.
+         *
+         * @param tmpMatrix a matrix to calculate the final matrix in
+         * @param lodPath the simplified path to transform instead, null for the exact path
+         */
+        public Path getRenderPath(VGroup group, float scaleX, float scaleY, Matrix tmpMatrix,
+                Path lodPath) {
+            final Path path = lodPath != null ? lodPath : getPath();
+            if (mRenderPath == null) {
+                mRenderPath = new Path();
+                mRenderMatrixVersion = -1;
+            }
+            if (mRenderMatrixVersion != group.mStackedMatrixVersion
+                    || mRenderScaleX != scaleX || mRenderScaleY != scaleY
+                    || mRenderSourcePath != path) {
+                tmpMatrix.set(group.mStackedMatrix);
+                tmpMatrix.postScale(scaleX, scaleY);
+                mRenderPath.reset();
+                mRenderPath.addPath(path, tmpMatrix);
+                mRenderMatrixVersion = group.mStackedMatrixVersion;
+                mRenderScaleX = scaleX;
+                mRenderScaleY = scaleY;
+                mRenderSourcePath = path;
+                mRenderPathVersion++;
+            }
+            return mRenderPath;
+        }
+
         public String getPathName() {
             return mPathName;
         }
 
+        void invalidate() {
+            if (mRenderer != null) {
+                mRenderer.invalidateTree();
+            }
+        }
+
         public boolean isClipPath() {
             return false;
         }
@@ -1310,17 +2541,45 @@ public class VectorDrawable extends Drawable {
         /* Setters and Getters, used by animator from AnimatedVectorDrawable. */
         @SuppressWarnings("unused")
         public PathParser.PathDataNode[] getPathData() {
+            if (mPathData != null) {
+                // Parse it to the nodes directly
+                mNodes = PathParser.createNodesFromPathData(mPathData);
+                mPathData = null;
+                mNodesShared = false;
+            } else if (mNodes == null && mVerbs != null) {
+                mNodes = PathParser.createNodesFromPathData(
+                        PathDataScanner.toPathData(mVerbs, mCoords));
+                mNodesShared = false;
+            }
             return mNodes;
         }
 
+        /**
+         * Sets the nodes, they are updated in place if they can be morphed from the
+         * current nodes or the spare ones, or copied otherwise.
+         */
         @SuppressWarnings("unused")
         public void setPathData(PathParser.PathDataNode[] nodes) {
-            if (!PathParser.canMorph(mNodes, nodes)) {
-                // This should not happen in the middle of animation.
+            // The nodes replace the path data
+            mPathData = null;
+            if (mNodesShared) {
+                // Copy on write
                 mNodes = PathParser.deepCopyNodes(nodes);
-            } else {
+                mNodesShared = false;
+            } else if (PathParser.canMorph(mNodes, nodes)) {
                 PathParser.updateNodes(mNodes, nodes);
+            } else if (PathParser.canMorph(mSpareNodes, nodes)) {
+                // Switching back to the previous shape, reuse its nodes.
+                final PathParser.PathDataNode[] temp = mNodes;
+                mNodes = mSpareNodes;
+                mSpareNodes = temp;
+                PathParser.updateNodes(mNodes, nodes);
+            } else {
+                mSpareNodes = mNodes;
+                mNodes = PathParser.deepCopyNodes(nodes);
             }
+            mPathDirty = true;
+            invalidate();
         }
     }
 
@@ -1328,6 +2587,11 @@ public class VectorDrawable extends Drawable {
      * Clip path, which only has name and pathData.
      */
     private static class VClipPath extends VPath {
+        // The path as a rect, and the version of the path it is checked on.
+        private RectF mRect;
+        private boolean mIsRect;
+        private int mRectVersion = -1;
+
         public VClipPath() {
             // Empty constructor.
         }
@@ -1354,10 +2618,30 @@ public class VectorDrawable extends Drawable {
 
             final String pathData = a.getString(R.styleable.VectorDrawableClipPath_pathData);
             if (pathData != null) {
-                mNodes = PathParser.createNodesFromPathData(pathData);
+                setPathDataString(pathData);
             }
         }
 
+        public void load(ByteBuffer data) throws IOException {
+            mPathName = CompiledVector.readString(data);
+            loadPathData(data);
+        }
+
+        /**
+         * Returns the path as a rect if it is a rect, or null.
+         */
+        public RectF getRect() {
+            final Path path = getPath();
+            if (mRectVersion != mPathVersion) {
+                if (mRect == null) {
+                    mRect = new RectF();
+                }
+                mIsRect = path.isRect(mRect);
+                mRectVersion = mPathVersion;
+            }
+            return mIsRect ? mRect : null;
+        }
+
         @Override
         public boolean isClipPath() {
             return true;
@@ -1385,10 +2669,145 @@ public class VectorDrawable extends Drawable {
         Paint.Join mStrokeLineJoin = Paint.Join.MITER;
         float mStrokeMiterlimit = 4;
 
+        // Measures the first contour of the path for trimming, the length and the
+        // version of the path it is measured from.
+        private PathMeasure mPathMeasure;
+        float mPathLength;
+        private int mMeasureVersion = -1;
+
+        // The simplified paths of the last levels of detail, and the version of
+        // the path they are simplified from. A level which isn't simpler than the
+        // path holds the path itself.
+        private int[] mLodLevels;
+        private Path[] mLodPaths;
+        private int mNextLodIndex;
+        private int mLodVersion = -1;
+
+        // The path intersected with the clips before it in the group, set when the
+        // display list is compiled. Only unnamed paths are clipped, the nodes of
+        // them never change.
+        private Path mClippedPath;
+
+        // The outline of the stroke of the render path, and the version of the render
+        // path and the paint attributes it is built with.
+        private Path mStrokeOutline;
+        private int mOutlineVersion = -1;
+        private float mOutlineWidth;
+        private float mOutlineMiter;
+        private Paint.Cap mOutlineCap;
+        private Paint.Join mOutlineJoin;
+
         public VFullPath() {
             // Empty constructor.
         }
 
+        /**
+         * Returns the measure of the path, it is measured again only if the
+         * nodes are changed. mPathLength is updated too.
+         */
+        public PathMeasure getPathMeasure() {
+            final Path path = getPath();
+            if (mPathMeasure == null) {
+                mPathMeasure = new PathMeasure();
+            }
+            if (mMeasureVersion != mPathVersion) {
+                mPathMeasure.setPath(path, false);
+                mPathLength = mPathMeasure.getLength();
+                mMeasureVersion = mPathVersion;
+            }
+            return mPathMeasure;
+        }
+
+        /**
+         * Returns the fill outline of the stroke of the render path. It is built
+         * again only if the render path is transformed again or the stroke is changed.
+         * Call it right after {@link #getRenderPath}.
+         */
+        Path getStrokeOutline(Paint strokePaint) {
+            final float width = strokePaint.getStrokeWidth();
+            final float miter = strokePaint.getStrokeMiter();
+            final Paint.Cap cap = strokePaint.getStrokeCap();
+            final Paint.Join join = strokePaint.getStrokeJoin();
+            if (mStrokeOutline == null) {
+                mStrokeOutline = new Path();
+                mOutlineVersion = -1;
+            }
+            if (mOutlineVersion != mRenderPathVersion || mOutlineWidth != width
+                    || mOutlineMiter != miter || mOutlineCap != cap || mOutlineJoin != join) {
+                mStrokeOutline.reset();
+                strokePaint.getFillPath(mRenderPath, mStrokeOutline);
+                mOutlineVersion = mRenderPathVersion;
+                mOutlineWidth = width;
+                mOutlineMiter = miter;
+                mOutlineCap = cap;
+                mOutlineJoin = join;
+            }
+            return mStrokeOutline;
+        }
+
+        /**
+         * Returns the path clipped by the folded clips if any.
+         */
+        @Override
+        public Path getPath() {
+            final Path path = super.getPath();
+            return mClippedPath != null ? mClippedPath : path;
+        }
+
+        public Path getUnclippedPath() {
+            return super.getPath();
+        }
+
+        void setClippedPath(Path clippedPath) {
+            mClippedPath = clippedPath;
+            // Transform it instead of the old one
+            mPathVersion++;
+        }
+
+        /**
+         * Returns the path simplified for the level of detail, or null if the
+         * simplified path would have no fewer verbs than the path. It is built
+         * on first use and kept until the nodes are changed.
+         */
+        Path getLodPath(int level, VPathRenderer renderer) {
+            final Path path = getPath();
+            final int verbCount = getVerbCount();
+            if (verbCount < 0) {
+                // Set by animators, it would be simplified again on every frame
+                return null;
+            }
+            if (mLodPaths == null) {
+                mLodLevels = new int[VPathRenderer.LOD_CACHE_SIZE];
+                mLodPaths = new Path[VPathRenderer.LOD_CACHE_SIZE];
+            }
+            if (mLodVersion != mPathVersion) {
+                Arrays.fill(mLodLevels, VPathRenderer.NO_LOD);
+                Arrays.fill(mLodPaths, null);
+                mLodVersion = mPathVersion;
+            }
+
+            Path lodPath = null;
+            for (int i = 0; i < mLodLevels.length; i++) {
+                if (mLodLevels[i] == level) {
+                    lodPath = mLodPaths[i];
+                    break;
+                }
+            }
+            if (lodPath == null) {
+                lodPath = new Path();
+                final int lodVerbCount = renderer.getPathSimplifier().simplify(path,
+                        VPathRenderer.getLodTolerance(level), lodPath);
+                if (lodVerbCount >= verbCount) {
+                    // Polylines of curves may cost more than the curves
+                    lodPath = path;
+                }
+                mLodLevels[mNextLodIndex] = level;
+                mLodPaths[mNextLodIndex] = lodPath;
+                mNextLodIndex = (mNextLodIndex + 1) % mLodPaths.length;
+            }
+            return lodPath != path ? lodPath : null;
+        }
+
         public VFullPath(VFullPath copy) {
             super(copy);
             mStrokeColor = copy.mStrokeColor;
@@ -1450,7 +2869,7 @@ public class VectorDrawable extends Drawable {
 
             final String pathData = a.getString(R.styleable.VectorDrawablePath_pathData);
             if (pathData != null) {
-                mNodes = PathParser.createNodesFromPathData(pathData);
+                setPathDataString(pathData);
             }
 
             mFillColor = a.getColor(R.styleable.VectorDrawablePath_fillColor,
@@ -1477,6 +2896,22 @@ public class VectorDrawable extends Drawable {
                     R.styleable.VectorDrawablePath_trimPathStart, mTrimPathStart);
         }
 
+        public void load(ByteBuffer data) throws IOException {
+            mPathName = CompiledVector.readString(data);
+            loadPathData(data);
+            mFillColor = data.getInt();
+            mFillAlpha = data.getFloat();
+            mStrokeColor = data.getInt();
+            mStrokeAlpha = data.getFloat();
+            mStrokeWidth = data.getFloat();
+            mTrimPathStart = data.getFloat();
+            mTrimPathEnd = data.getFloat();
+            mTrimPathOffset = data.getFloat();
+            mStrokeLineCap = getStrokeLineCap(data.get(), mStrokeLineCap);
+            mStrokeLineJoin = getStrokeLineJoin(data.get(), mStrokeLineJoin);
+            mStrokeMiterlimit = data.getFloat();
+        }
+
         /* Setters and Getters, used by animator from AnimatedVectorDrawable. */
         @SuppressWarnings("unused")
         public int getStrokeColor() {
@@ -1485,7 +2920,10 @@ public class VectorDrawable extends Drawable {
 
         @SuppressWarnings("unused")
         public void setStrokeColor(int strokeColor) {
-            mStrokeColor = strokeColor;
+            if (strokeColor != mStrokeColor) {
+                mStrokeColor = strokeColor;
+                invalidate();
+            }
         }
 
         @SuppressWarnings("unused")
@@ -1495,7 +2933,10 @@ public class VectorDrawable extends Drawable {
 
         @SuppressWarnings("unused")
         public void setStrokeWidth(float strokeWidth) {
-            mStrokeWidth = strokeWidth;
+            if (strokeWidth != mStrokeWidth) {
+                mStrokeWidth = strokeWidth;
+                invalidate();
+            }
         }
 
         @SuppressWarnings("unused")
@@ -1505,7 +2946,10 @@ public class VectorDrawable extends Drawable {
 
         @SuppressWarnings("unused")
         public void setStrokeAlpha(float strokeAlpha) {
-            mStrokeAlpha = strokeAlpha;
+            if (strokeAlpha != mStrokeAlpha) {
+                mStrokeAlpha = strokeAlpha;
+                invalidate();
+            }
         }
 
         @SuppressWarnings("unused")
@@ -1515,7 +2959,10 @@ public class VectorDrawable extends Drawable {
 
         @SuppressWarnings("unused")
         public void setFillColor(int fillColor) {
-            mFillColor = fillColor;
+            if (fillColor != mFillColor) {
+                mFillColor = fillColor;
+                invalidate();
+            }
         }
 
         @SuppressWarnings("unused")
@@ -1525,7 +2972,10 @@ public class VectorDrawable extends Drawable {
 
         @SuppressWarnings("unused")
         public void setFillAlpha(float fillAlpha) {
-            mFillAlpha = fillAlpha;
+            if (fillAlpha != mFillAlpha) {
+                mFillAlpha = fillAlpha;
+                invalidate();
+            }
         }
 
         @SuppressWarnings("unused")
@@ -1535,7 +2985,10 @@ public class VectorDrawable extends Drawable {
 
         @SuppressWarnings("unused")
         public void setTrimPathStart(float trimPathStart) {
-            mTrimPathStart = trimPathStart;
+            if (trimPathStart != mTrimPathStart) {
+                mTrimPathStart = trimPathStart;
+                invalidate();
+            }
         }
 
         @SuppressWarnings("unused")
@@ -1545,7 +2998,10 @@ public class VectorDrawable extends Drawable {
 
         @SuppressWarnings("unused")
         public void setTrimPathEnd(float trimPathEnd) {
-            mTrimPathEnd = trimPathEnd;
+            if (trimPathEnd != mTrimPathEnd) {
+                mTrimPathEnd = trimPathEnd;
+                invalidate();
+            }
         }
 
         @SuppressWarnings("unused")
@@ -1555,7 +3011,10 @@ public class VectorDrawable extends Drawable {
 
         @SuppressWarnings("unused")
         public void setTrimPathOffset(float trimPathOffset) {
-            mTrimPathOffset = trimPathOffset;
+            if (trimPathOffset != mTrimPathOffset) {
+                mTrimPathOffset = trimPathOffset;
+                invalidate();
+            }
         }
     }
 
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inflates vector and animated vector resources on background threads ahead of
+ * time, so {@link VectorDrawable#create(Context, int)} and
+ * {@link AnimatedVectorDrawable#create(Context, int)} get them from the state cache.
+ * Vectors can be rasterized at given sizes too.
+ * <p>
+ * The preloaded states are kept until {@link #release()}, the state cache alone
+ * doesn't keep the states which no drawable uses. The resources which are being
+ * preloaded are not inflated again by another call, it waits for them instead.
+ */
+public final class VectorPreloader {
+
+    private static final String LOGTAG = VectorPreloader.class.getSimpleName();
+
+    private static final String ANIMATED_VECTOR = "animated-vector";
+
+    private static final Object sLock = new Object();
+
+    private static final HashMap<ConstantStateCache.Key, Task> sTasks = new HashMap<>();
+
+    private static final HashMap<ConstantStateCache.Key, Drawable.ConstantState> sStates =
+            new HashMap<>();
+
+    // Rasterizes in the preloading thread
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private VectorPreloader() {
+    }
+
+    /**
+     * Callback for {@link #preload(Context, int[], int[], Executor, OnPreloadedListener)}.
+     */
+    public interface OnPreloadedListener {
+        /**
+         * Called on the main thread when all the resources are preloaded.
+         * The resources which fail to inflate are logged and skipped.
+         */
+        void onPreloaded();
+    }
+
+    /**
+     * Inflates the resources with the executor.
+     *
+     * @see #preload(Context, int[], int[], Executor, OnPreloadedListener)
+     */
+    public static void preload(@NonNull Context context, @NonNull int[] resIds,
+            @NonNull Executor executor) {
+        preload(context, resIds, null, executor, null);
+    }
+
+    /**
+     * Inflates the resources with the executor, and rasterizes the vectors at the sizes.
+     * Animated vectors are not rasterized, they are drawn without raster cache.
+     *
+     * @param context the context whose resources and theme the drawables are created
+     *                with later
+     * @param sizes the pixel sizes as pairs of width and height, or null
+     * @param listener called on the main thread when all the resources are done
+     */
+    public static void preload(@NonNull Context context, @NonNull int[] resIds,
+            @Nullable int[] sizes, @NonNull Executor executor,
+            @Nullable OnPreloadedListener listener) {
+        if (sizes != null) {
+            if (sizes.length % 2 != 0) {
+                throw new IllegalArgumentException("sizes must be pairs of width and height");
+            }
+            for (int size : sizes) {
+                if (size <= 0) {
+                    throw new IllegalArgumentException("width and height must be > 0");
+                }
+            }
+        }
+
+        final Batch batch = new Batch(resIds.length, sizes, listener);
+        if (resIds.length == 0) {
+            batch.finish();
+            return;
+        }
+
+        for (int resId : resIds) {
+            final ConstantStateCache.Key key = new ConstantStateCache.Key(resId,
+                    context.getResources(), context.getTheme());
+            final Task task;
+            synchronized (sLock) {
+                final Task running = sTasks.get(key);
+                if (running != null) {
+                    // Wait for it
+                    running.mBatches.add(batch);
+                    continue;
+                }
+                task = new Task(context, resId, key);
+                task.mBatches.add(batch);
+                sTasks.put(key, task);
+            }
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Drops the preloaded states. They are still cached while any drawable uses them.
+     */
+    public static void release() {
+        synchronized (sLock) {
+            sStates.clear();
+        }
+    }
+
+    @Nullable
+    private static Drawable inflate(Context context, int resId)
+            throws XmlPullParserException, IOException {
+        // Find out which drawable it is from the root tag
+        final XmlResourceParser parser = context.getResources().getXml(resId);
+        final String name;
+        int type;
+        try {
+            while ((type = parser.next()) != XmlPullParser.START_TAG &&
+                    type != XmlPullParser.END_DOCUMENT) {
+                // Empty loop
+            }
+            if (type != XmlPullParser.START_TAG) {
+                throw new XmlPullParserException("No start tag found");
+            }
+            name = parser.getName();
+        } finally {
+            parser.close();
+        }
+
+        if (ANIMATED_VECTOR.equals(name)) {
+            return AnimatedVectorDrawable.create(context, resId);
+        } else {
+            return VectorDrawable.create(context, resId);
+        }
+    }
+
+    /**
+     * Inflates one resource, then hands the state to all the batches waiting for it.
+     */
+    private static final class Task implements Runnable {
+        final Context mContext;
+        final int mResId;
+        final ConstantStateCache.Key mKey;
+        final ArrayList<Batch> mBatches = new ArrayList<>();
+
+        public Task(Context context, int resId, ConstantStateCache.Key key) {
+            mContext = context;
+            mResId = resId;
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            Drawable drawable = null;
+            try {
+                drawable = inflate(mContext, mResId);
+            } catch (XmlPullParserException e) {
+                Log.e(LOGTAG, "parser error", e);
+            } catch (IOException e) {
+                Log.e(LOGTAG, "parser error", e);
+            } catch (RuntimeException e) {
+                Log.e(LOGTAG, "Can't preload " + mResId, e);
+            }
+
+            final ArrayList<Batch> batches;
+            synchronized (sLock) {
+                sTasks.remove(mKey);
+                if (drawable != null) {
+                    sStates.put(mKey, drawable.getConstantState());
+                }
+                // No batch is added once it is removed from sTasks
+                batches = mBatches;
+            }
+
+            for (int i = 0, n = batches.size(); i < n; i++) {
+                batches.get(i).onDone(drawable);
+            }
+        }
+    }
+
+    /**
+     * The resources of one preload() call.
+     */
+    private static final class Batch {
+        final AtomicInteger mRemaining;
+        final int[] mSizes;
+        final OnPreloadedListener mListener;
+
+        public Batch(int count, int[] sizes, OnPreloadedListener listener) {
+            mRemaining = new AtomicInteger(count);
+            mSizes = sizes;
+            mListener = listener;
+        }
+
+        void onDone(@Nullable Drawable drawable) {
+            if (drawable instanceof VectorDrawable && mSizes != null) {
+                // The rasters are shared by the drawables of the same state, and
+                // the sizes which are rasterized already are skipped.
+                final VectorDrawable vector = (VectorDrawable) drawable;
+                for (int i = 0; i < mSizes.length; i += 2) {
+                    vector.prepareAsync(mSizes[i], mSizes[i + 1], DIRECT_EXECUTOR, null);
+                }
+            }
+
+            if (mRemaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        void finish() {
+            if (mListener != null) {
+                VectorDrawable.getMainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onPreloaded();
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.vector;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide LRU cache of rasterized vectors.
+ * <p>
+ * Every {@link VectorDrawable} created from the same constant state shares the
+ * rasters in this cache, one per pixel size, so drawing the same vector at
+ * several sizes doesn't re-rasterize it on every alternate draw.
+ * <p>
+ * The cache is bounded by a byte budget, the least recently drawn rasters
+ * are evicted first. Evicted rasters go to a {@link BitmapPool}, and new
+ * rasters are taken from it, so resizing doesn't allocate bitmaps in steady
+ * state. An evicted raster may still be in use, by the thread which got it
+ * before, or by RenderThread which draws the recorded bitmap later in the
+ * frame. So it goes to the pool on the main thread after the current message,
+ * when the frame is synced, and only when no raster is prepared in background.
+ * <p>
+ * The cache doesn't keep the owners of the rasters alive. The rasters of an
+ * owner which is garbage collected, such as a mutated drawable, are dropped
+ * the next time the cache is used.
+ * <p>
+ * Call {@link #register(Context)} once, or forward
+ * {@link ComponentCallbacks2#onTrimMemory(int)} to {@link #trimMemory(int)},
+ * to release rasters under memory pressure. Evicted rasters are rebuilt
+ * lazily on the next draw.
+ */
+public final class VectorRasterCache {
+
+    private static final Object sLock = new Object();
+
+    private static final LinkedHashMap<Key, Entry> sEntries =
+            new LinkedHashMap<>(0, 0.75f, true);
+
+    private static int sMaxSize = getDefaultMaxSize();
+    private static int sSize;
+
+    private static boolean sRegistered;
+
+    // The owners of the cached keys which are garbage collected
+    private static final ReferenceQueue<Object> sDeadOwners = new ReferenceQueue<>();
+
+    // The bitmaps of evicted rasters which may still be in use
+    private static final ArrayList<Bitmap> sEvictedBitmaps = new ArrayList<>();
+    private static boolean sReleasePosted;
+    private static int sBackgroundPrepareCount;
+
+    private static final Runnable RELEASE_EVICTED_BITMAPS = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (sLock) {
+                sReleasePosted = false;
+                if (sBackgroundPrepareCount > 0) {
+                    // Posted again when they are done
+                    return;
+                }
+                for (int i = 0, n = sEvictedBitmaps.size(); i < n; i++) {
+                    sBitmapPool.put(sEvictedBitmaps.get(i));
+                }
+                sEvictedBitmaps.clear();
+            }
+        }
+    };
+
+    @NonNull
+    private static BitmapPool sBitmapPool = new SizeClassBitmapPool(getDefaultMaxSize() / 2);
+
+    @Nullable
+    private static VectorDiskCache sDiskCache;
+
+    private VectorRasterCache() {
+    }
+
+    private static int getDefaultMaxSize() {
+        // 1/16 of the heap, it is enough for plenty of icons and one
+        // full screen raster on most devices.
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Sets the byte budget of the cache. Rasters are evicted immediately
+     * if the cache is larger than the new budget.
+     *
+     * @param maxSize the max size in bytes
+     */
+    public static void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        synchronized (sLock) {
+            sMaxSize = maxSize;
+            trimToSize(maxSize, null);
+        }
+    }
+
+    /**
+     * @return the byte budget of the cache
+     */
+    public static int getMaxSize() {
+        synchronized (sLock) {
+            return sMaxSize;
+        }
+    }
+
+    /**
+     * @return the bytes of all cached rasters
+     */
+    public static int size() {
+        synchronized (sLock) {
+            removeDeadEntries();
+            return sSize;
+        }
+    }
+
+    /**
+     * Evicts all cached rasters.
+     */
+    public static void clear() {
+        synchronized (sLock) {
+            trimToSize(-1, null);
+        }
+    }
+
+    /**
+     * Registers {@link ComponentCallbacks2} to the application context,
+     * then the cache is trimmed by the system automatically.
+     * It is safe to call it multiple times.
+     */
+    public static void register(@NonNull Context context) {
+        synchronized (sLock) {
+            if (sRegistered) {
+                return;
+            }
+            sRegistered = true;
+        }
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        });
+    }
+
+    /**
+     * Releases rasters according to the trim level, the least recently
+     * drawn rasters first.
+     *
+     * @param level the level from {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public static void trimMemory(int level) {
+        synchronized (sLock) {
+            removeDeadEntries();
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+                // The process is likely to be killed, release everything.
+                trimToSize(-1, null);
+                sBitmapPool.clear();
+                // They are not pooled, the ones in use are kept by their users
+                sEvictedBitmaps.clear();
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                // Nothing is visible, keep the rasters of the last screen only.
+                trimToSize(sMaxSize / 4, null);
+                sBitmapPool.clear();
+                sEvictedBitmaps.clear();
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                trimToSize(sMaxSize / 2, null);
+                sBitmapPool.clear();
+                sEvictedBitmaps.clear();
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+                sBitmapPool.clear();
+                sEvictedBitmaps.clear();
+            }
+        }
+    }
+
+    /**
+     * Replaces the bitmap pool, so rasters can share an app-wide pool with
+     * other bitmap users. The previous pool is cleared.
+     */
+    public static void setBitmapPool(@NonNull BitmapPool pool) {
+        synchronized (sLock) {
+            if (sBitmapPool != pool) {
+                sBitmapPool.clear();
+                sBitmapPool = pool;
+            }
+        }
+    }
+
+    @NonNull
+    public static BitmapPool getBitmapPool() {
+        synchronized (sLock) {
+            return sBitmapPool;
+        }
+    }
+
+    /**
+     * Sets the disk tier, null to disable it. It is disabled by default.
+     * The disk is only used by {@link VectorDrawable#prepareAsync} and
+     * {@link VectorPreloader}, draw() never waits for it.
+     */
+    public static void setDiskCache(@Nullable VectorDiskCache diskCache) {
+        synchronized (sLock) {
+            sDiskCache = diskCache;
+        }
+    }
+
+    @Nullable
+    public static VectorDiskCache getDiskCache() {
+        synchronized (sLock) {
+            return sDiskCache;
+        }
+    }
+
+    /**
+     * Takes a bitmap from the pool, or creates a new one.
+     */
+    static Bitmap obtainBitmap(int width, int height, Bitmap.Config config) {
+        final BitmapPool pool;
+        synchronized (sLock) {
+            pool = sBitmapPool;
+        }
+        final Bitmap bitmap = pool.get(width, height, config);
+        if (bitmap != null) {
+            return bitmap;
+        } else {
+            return Bitmap.createBitmap(width, height, config);
+        }
+    }
+
+    static Entry get(Key key) {
+        synchronized (sLock) {
+            removeDeadEntries();
+            return sEntries.get(key);
+        }
+    }
+
+    /**
+     * Puts the entry to the cache. The new entry is never evicted by this
+     * call, even if it is larger than the budget, or the caller has nothing
+     * to draw.
+     */
+    static void put(Key key, Entry entry) {
+        synchronized (sLock) {
+            removeDeadEntries();
+            final Entry previous = sEntries.put(key, entry);
+            if (previous != null && previous != entry) {
+                sSize -= previous.mSize;
+                releaseBitmap(previous.mBitmap);
+            }
+            sSize += entry.mSize;
+            trimToSize(sMaxSize, entry);
+        }
+    }
+
+    private static void trimToSize(int maxSize, Entry keep) {
+        final Iterator<Map.Entry<Key, Entry>> iterator = sEntries.entrySet().iterator();
+        while (sSize > maxSize && iterator.hasNext()) {
+            final Entry entry = iterator.next().getValue();
+            if (entry == keep) {
+                continue;
+            }
+            iterator.remove();
+            sSize -= entry.mSize;
+            releaseBitmap(entry.mBitmap);
+        }
+    }
+
+    /**
+     * Drops the rasters whose owners are garbage collected.
+     */
+    private static void removeDeadEntries() {
+        Reference<?> ref;
+        while ((ref = sDeadOwners.poll()) != null) {
+            // The key is the one in the map, so it is found by identity
+            final Entry entry = sEntries.remove(((OwnerReference) ref).mKey);
+            if (entry != null) {
+                sSize -= entry.mSize;
+                releaseBitmap(entry.mBitmap);
+            }
+        }
+    }
+
+    /**
+     * Puts the bitmap of an evicted raster to the pool later, see the class comment.
+     */
+    private static void releaseBitmap(Bitmap bitmap) {
+        sEvictedBitmaps.add(bitmap);
+        postReleaseBitmaps();
+    }
+
+    private static void postReleaseBitmaps() {
+        if (!sReleasePosted) {
+            sReleasePosted = true;
+            VectorDrawable.getMainHandler().post(RELEASE_EVICTED_BITMAPS);
+        }
+    }
+
+    /**
+     * Called before rasters are prepared in background. The evicted bitmaps are
+     * not pooled until {@link #endBackgroundPrepare()}, the thread may still use them.
+     */
+    static void beginBackgroundPrepare() {
+        synchronized (sLock) {
+            sBackgroundPrepareCount++;
+        }
+    }
+
+    static void endBackgroundPrepare() {
+        synchronized (sLock) {
+            sBackgroundPrepareCount--;
+            if (sBackgroundPrepareCount == 0 && !sEvictedBitmaps.isEmpty()) {
+                postReleaseBitmaps();
+            }
+        }
+    }
+
+    static int getBitmapSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        } else {
+            return bitmap.getByteCount();
+        }
+    }
+
+    /**
+     * The key of a raster. It is mutable so that the draw() path can look up
+     * the cache without allocation. Call {@link #copy()} before putting it
+     * to the cache, the copy only references the owner weakly.
+     */
+    static final class Key {
+        // The owner of a lookup key
+        private Object mOwner;
+        // The owner of a copied key
+        private OwnerReference mOwnerReference;
+        private int mOwnerHash;
+        int mWidth;
+        int mHeight;
+        // The column and row of the tile, -1 for the whole raster
+        int mTileX = -1;
+        int mTileY = -1;
+        // The mipmap level, the size is halved for each level
+        int mLevel;
+
+        public Key set(Object owner, int width, int height) {
+            mOwner = owner;
+            mOwnerReference = null;
+            mOwnerHash = System.identityHashCode(owner);
+            mWidth = width;
+            mHeight = height;
+            mTileX = -1;
+            mTileY = -1;
+            mLevel = 0;
+            return this;
+        }
+
+        public Key setTile(int tileX, int tileY) {
+            mTileX = tileX;
+            mTileY = tileY;
+            return this;
+        }
+
+        public Key setLevel(int level) {
+            mLevel = level;
+            return this;
+        }
+
+        public Key copy() {
+            final Key key = new Key().set(null, mWidth, mHeight).setTile(mTileX, mTileY)
+                    .setLevel(mLevel);
+            key.mOwnerReference = new OwnerReference(getOwner(), key);
+            key.mOwnerHash = mOwnerHash;
+            return key;
+        }
+
+        /**
+         * Returns the owner, or null if it is garbage collected.
+         */
+        Object getOwner() {
+            return mOwnerReference != null ? mOwnerReference.get() : mOwner;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            // The keys of dead owners are only equal to themselves
+            final Object owner = getOwner();
+            if (owner == null || owner != key.getOwner()) return false;
+            if (mWidth != key.mWidth) return false;
+            if (mHeight != key.mHeight) return false;
+            if (mTileX != key.mTileX) return false;
+            if (mTileY != key.mTileY) return false;
+            if (mLevel != key.mLevel) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mOwnerHash;
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + mTileX;
+            result = 31 * result + mTileY;
+            result = 31 * result + mLevel;
+            return result;
+        }
+    }
+
+    private static final class OwnerReference extends WeakReference<Object> {
+        final Key mKey;
+
+        public OwnerReference(Object owner, Key key) {
+            super(owner, sDeadOwners);
+            mKey = key;
+        }
+    }
+
+    /**
+     * A cached raster. The version is compared with the owner's to tell
+     * whether the raster is still up to date.
+     */
+    static final class Entry {
+        final Bitmap mBitmap;
+        final int mSize;
+        int mVersion = -1;
+
+        public Entry(Bitmap bitmap) {
+            mBitmap = bitmap;
+            mSize = getBitmapSize(bitmap);
+        }
+    }
+}